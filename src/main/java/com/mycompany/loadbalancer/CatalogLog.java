@@ -0,0 +1,476 @@
+package com.mycompany.loadbalancer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Durable record of catalog changes. Every change is appended to a
+ * write-ahead log: the caller encodes the record and queues it without
+ * taking a lock, and one background thread writes whatever has built up and
+ * fsyncs it, so concurrent jobs share a disk sync instead of paying one
+ * each. Now and then the log is rolled and the whole catalog written as a
+ * snapshot, after which older logs are deleted. Startup loads the newest
+ * snapshot and replays the logs written after it.
+ *
+ * Files in the directory: wal-N.log and snapshot-N.bin, where snapshot N
+ * covers everything in the logs numbered below N.
+ */
+public class CatalogLog implements Closeable {
+    static final byte PLACE = 1, ADD = 2, REMOVE = 3;
+    private static final int SNAPSHOT_MAGIC = 0x4C42434C; // "LBCL"
+    private static final long FLUSH_INTERVAL_MS = 10;
+
+    /** Receives recovered changes, oldest first. */
+    public interface Replay {
+        void place(String filename, List<String> containerIds);
+        void add(String filename, String containerId);
+        void remove(String filename, String containerId);
+    }
+
+    private final Path dir;
+    private final Map<String, ? extends Collection<FileContainer>> live;
+    private final long maxWalBytes;
+    private final long snapshotIntervalMs;
+    private final Thread syncer;
+    // Sync callers' continuations (job completion, listeners) run here, off the syncer
+    private final ExecutorService completions = ThreadMode.fromProperty().newExecutor("catalog-sync-done-", 2);
+    private final ScheduledExecutorService snapshotter;
+
+    // Encoded records waiting for the syncer. A record is queued before
+    // appendedSeq counts it, so every counted record is in the queue.
+    private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong appendedSeq = new AtomicLong();
+    private volatile boolean closed;
+    // The first write or fsync error. Records after it cannot be made
+    // durable without a gap, so from then on every append and sync fails.
+    private volatile IOException failure;
+
+    // Guarded by this
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private long syncedSeq;
+    private CompletableFuture<Long> rollRequest;
+
+    // Only touched by the syncer thread
+    private FileChannel wal;
+    private volatile long generation;
+    private volatile long walBytes;
+    private volatile long lastSnapshot = System.currentTimeMillis();
+    private volatile long recordsRecovered;
+    private volatile long recoveryMs;
+    private volatile long syncs;
+
+    /**
+     * Recovers the catalog in dir into replay, then starts logging. live is
+     * the in-memory catalog that snapshots are written from.
+     */
+    public CatalogLog(Path dir, Replay replay, Map<String, ? extends Collection<FileContainer>> live) throws IOException {
+        this.dir = dir;
+        this.live = live;
+        this.maxWalBytes = Long.getLong("lb.catalog.walMaxBytes", 64L << 20);
+        this.snapshotIntervalMs = Long.getLong("lb.catalog.snapshotIntervalMs", 60_000);
+        Files.createDirectories(dir);
+
+        long start = System.nanoTime();
+        this.generation = recover(replay) + 1;
+        this.recoveryMs = (System.nanoTime() - start) / 1_000_000;
+        this.wal = openWal(generation);
+
+        syncer = new Thread(this::syncLoop, "catalog-wal-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+        snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "catalog-snapshot"); t.setDaemon(true); return t;
+        });
+        snapshotter.scheduleWithFixedDelay(this::maybeSnapshot, 1, 1, TimeUnit.SECONDS);
+    }
+
+    // --- Appending ---
+
+    public void place(String filename, Collection<FileContainer> containers) {
+        append(PLACE, filename, containers);
+    }
+
+    public void add(String filename, FileContainer container) {
+        append(ADD, filename, List.of(container));
+    }
+
+    public void remove(String filename, FileContainer container) {
+        append(REMOVE, filename, List.of(container));
+    }
+
+    /** Throws if changes can no longer be logged, so the caller can refuse them up front. */
+    public void checkWritable() {
+        if (closed) throw new IllegalStateException("Catalog log is closed");
+        IOException f = failure;
+        if (f != null) throw new IllegalStateException("Catalog log failed: " + f, f);
+    }
+
+    // Called under the catalog's stripe locks, so it only encodes and queues
+    private void append(byte type, String filename, Collection<FileContainer> containers) {
+        checkWritable();
+        pending.offer(encode(type, filename, containers));
+        appendedSeq.incrementAndGet();
+    }
+
+    // Record: body length, CRC32 of body, body (type, filename, container ids)
+    private static byte[] encode(byte type, String filename, Collection<FileContainer> containers) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+            DataOutputStream record = new DataOutputStream(body);
+            record.writeByte(type);
+            record.writeUTF(filename);
+            if (type == PLACE) record.writeShort(containers.size());
+            for (FileContainer c : containers) record.writeUTF(c.id);
+            CRC32 crc = new CRC32();
+            crc.update(body.toByteArray());
+            ByteArrayOutputStream framed = new ByteArrayOutputStream(body.size() + 8);
+            DataOutputStream out = new DataOutputStream(framed);
+            out.writeInt(body.size());
+            out.writeInt((int) crc.getValue());
+            body.writeTo(out);
+            return framed.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // in-memory streams do not throw
+        }
+    }
+
+    /** Completes once every change appended so far is on disk. */
+    public synchronized CompletableFuture<Void> sync() {
+        if (closed) return CompletableFuture.failedFuture(new IllegalStateException("Catalog log is closed"));
+        if (failure != null) return CompletableFuture.failedFuture(failure);
+        long seq = appendedSeq.get();
+        if (syncedSeq >= seq) return CompletableFuture.completedFuture(null);
+        Waiter w = new Waiter(seq);
+        waiters.add(w);
+        notifyAll();
+        return w.future;
+    }
+
+    /** Flushes what is pending and stops the background threads. */
+    @Override public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        snapshotter.shutdownNow();
+        try { syncer.join(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        completions.shutdown();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("walGeneration", generation);
+        m.put("walBytes", walBytes);
+        m.put("walSyncs", syncs);
+        m.put("recoveredRecords", recordsRecovered);
+        m.put("recoveryMs", recoveryMs);
+        m.put("walFailed", failure != null);
+        return m;
+    }
+
+    // --- Group commit ---
+
+    private void syncLoop() {
+        while (true) {
+            CompletableFuture<Long> roll;
+            boolean stop;
+            synchronized (this) {
+                if (!closed && waiters.isEmpty() && rollRequest == null) {
+                    try { wait(FLUSH_INTERVAL_MS); } catch (InterruptedException e) { closed = true; }
+                }
+                roll = rollRequest;
+                rollRequest = null;
+                stop = closed;
+            }
+            // Every record counted in upTo is already queued, so draining
+            // the queue empty writes at least those
+            long upTo = appendedSeq.get();
+            ByteArrayOutputStream drained = new ByteArrayOutputStream();
+            for (byte[] r; (r = pending.poll()) != null; ) drained.write(r, 0, r.length);
+            byte[] batch = drained.toByteArray();
+            // Appends carry on into 'pending' while this batch is written
+            IOException error = failure;
+            try {
+                if (error != null) {
+                    // Nothing after the failed batch may reach the log
+                    if (roll != null) roll.completeExceptionally(error);
+                } else if (batch.length > 0) {
+                    ByteBuffer buf = ByteBuffer.wrap(batch);
+                    while (buf.hasRemaining()) wal.write(buf);
+                    wal.force(false);
+                    walBytes += batch.length;
+                    syncs++;
+                }
+                if (error == null && roll != null) {
+                    wal.close();
+                    wal = openWal(++generation);
+                    walBytes = 0;
+                    roll.complete(generation);
+                }
+            } catch (IOException e) {
+                error = e;
+                failure = e;
+                System.err.println("[Catalog] WAL write failed, refusing further changes: " + e);
+                if (roll != null) roll.completeExceptionally(e);
+            }
+            // After a failure every waiter fails, including ones past this batch
+            completeWaiters(error == null ? upTo : Long.MAX_VALUE, error);
+            if (stop) {
+                try { wal.close(); } catch (IOException ignored) {}
+                completeWaiters(Long.MAX_VALUE, new IllegalStateException("Catalog log is closed"));
+                return;
+            }
+        }
+    }
+
+    private void completeWaiters(long upTo, Throwable error) {
+        List<Waiter> done = new ArrayList<>();
+        synchronized (this) {
+            if (error == null) syncedSeq = Math.max(syncedSeq, upTo);
+            while (!waiters.isEmpty() && waiters.peek().seq <= upTo) done.add(waiters.poll());
+        }
+        if (done.isEmpty()) return;
+        // Whatever the callers chained onto sync() must not delay the next fsync
+        completions.execute(() -> {
+            for (Waiter w : done) {
+                if (error == null) w.future.complete(null); else w.future.completeExceptionally(error);
+            }
+        });
+    }
+
+    // --- Snapshots ---
+
+    private void maybeSnapshot() {
+        if (failure != null) return;
+        long bytes = walBytes;
+        boolean due = System.currentTimeMillis() - lastSnapshot >= snapshotIntervalMs;
+        if (bytes < maxWalBytes && !(due && bytes > 0)) return;
+        try {
+            snapshot();
+        } catch (Exception e) {
+            System.err.println("[Catalog] Snapshot failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rolls the log and writes the catalog as snapshot N, where N is the new
+     * log's number. Every change in older logs is already in memory, so the
+     * snapshot covers them; changes made while it is written are also in log
+     * N, and replaying them over the snapshot gives the same result.
+     */
+    public void snapshot() throws IOException {
+        CompletableFuture<Long> roll = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) return;
+            rollRequest = roll;
+            notifyAll();
+        }
+        long gen = roll.join();
+
+        Path tmp = dir.resolve(String.format("snapshot-%016d.tmp", gen));
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream os = Channels.newOutputStream(ch);
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(os, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            // Container ids are written once and then referred to by index
+            Map<String, Integer> ids = new HashMap<>();
+            for (Map.Entry<String, ? extends Collection<FileContainer>> e : live.entrySet()) {
+                List<FileContainer> replicas = new ArrayList<>(e.getValue());
+                out.writeBoolean(true);
+                out.writeUTF(e.getKey());
+                out.writeShort(replicas.size());
+                for (FileContainer c : replicas) {
+                    Integer idx = ids.get(c.id);
+                    if (idx != null) {
+                        out.writeInt(idx);
+                    } else {
+                        ids.put(c.id, ids.size());
+                        out.writeInt(-1);
+                        out.writeUTF(c.id);
+                    }
+                }
+            }
+            out.writeBoolean(false);
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            ch.force(true);
+        }
+        Files.move(tmp, dir.resolve(String.format("snapshot-%016d.bin", gen)), StandardCopyOption.ATOMIC_MOVE);
+        lastSnapshot = System.currentTimeMillis();
+
+        for (Path p : listFiles()) {
+            long g = generationOf(p);
+            if (g < gen) Files.deleteIfExists(p);
+        }
+    }
+
+    // --- Recovery ---
+
+    // Loads the newest snapshot and replays later logs; returns the highest generation seen
+    private long recover(Replay replay) throws IOException {
+        TreeMap<Long, Path> snapshots = new TreeMap<>(), wals = new TreeMap<>();
+        for (Path p : listFiles()) {
+            String name = p.getFileName().toString();
+            if (name.endsWith(".tmp") || (name.startsWith("wal-") && Files.size(p) == 0)) Files.deleteIfExists(p);
+            else if (name.startsWith("snapshot-")) snapshots.put(generationOf(p), p);
+            else if (name.startsWith("wal-")) wals.put(generationOf(p), p);
+        }
+        long from = 0, highest = 0;
+        if (!snapshots.isEmpty()) {
+            from = snapshots.lastKey();
+            highest = from;
+            loadSnapshot(snapshots.lastEntry().getValue(), replay);
+        }
+        for (Map.Entry<Long, Path> e : wals.tailMap(from, true).entrySet()) {
+            replayWal(e.getValue(), replay, e.getKey().equals(wals.lastKey()));
+            highest = Math.max(highest, e.getKey());
+        }
+        if (!wals.isEmpty() || !snapshots.isEmpty()) {
+            System.out.println("[Catalog] Recovered " + recordsRecovered + " records from " + dir);
+        }
+        return highest;
+    }
+
+    private void loadSnapshot(Path file, Replay replay) throws IOException {
+        try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16), new CRC32())) {
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC) throw new IOException("Not a catalog snapshot: " + file);
+            List<String> ids = new ArrayList<>();
+            while (in.readBoolean()) {
+                String filename = in.readUTF();
+                int n = in.readUnsignedShort();
+                List<String> replicas = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    int idx = in.readInt();
+                    if (idx < 0) {
+                        ids.add(in.readUTF());
+                        idx = ids.size() - 1;
+                    }
+                    replicas.add(ids.get(idx));
+                }
+                replay.place(filename, replicas);
+                recordsRecovered++;
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) throw new IOException("Corrupt catalog snapshot " + file);
+        }
+    }
+
+    // A torn record at the end of the newest log is a write cut short by a
+    // crash and is cut off; anywhere else it means damage and is reported.
+    private void replayWal(Path file, Replay replay, boolean newest) throws IOException {
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (true) {
+                int len, sum;
+                byte[] body;
+                try {
+                    len = in.readInt();
+                    sum = in.readInt();
+                    if (len <= 0 || len > (1 << 24)) break;
+                    body = new byte[len];
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 c = new CRC32();
+                c.update(body);
+                if ((int) c.getValue() != sum) break;
+                apply(body, replay);
+                valid += 8 + len;
+                recordsRecovered++;
+            }
+        }
+        long size = Files.size(file);
+        if (valid < size) {
+            if (!newest) throw new IOException("Corrupt catalog log " + file + " at byte " + valid);
+            System.err.println("[Catalog] Truncating torn tail of " + file + " (" + (size - valid) + " bytes)");
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ch.truncate(valid);
+                ch.force(true);
+            }
+        }
+    }
+
+    private static void apply(byte[] body, Replay replay) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        byte type = in.readByte();
+        String filename = in.readUTF();
+        switch (type) {
+            case PLACE:
+                int n = in.readUnsignedShort();
+                List<String> ids = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) ids.add(in.readUTF());
+                replay.place(filename, ids);
+                break;
+            case ADD: replay.add(filename, in.readUTF()); break;
+            case REMOVE: replay.remove(filename, in.readUTF()); break;
+            default: throw new IOException("Unknown catalog record type " + type);
+        }
+    }
+
+    // --- Files ---
+
+    private FileChannel openWal(long gen) throws IOException {
+        return FileChannel.open(dir.resolve(String.format("wal-%016d.log", gen)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private List<Path> listFiles() throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            List<Path> files = new ArrayList<>();
+            s.filter(p -> p.getFileName().toString().matches("(wal|snapshot)-\\d{16}\\.(log|bin|tmp)")).forEach(files::add);
+            return files;
+        }
+    }
+
+    private static long generationOf(Path p) {
+        String name = p.getFileName().toString();
+        int dash = name.indexOf('-');
+        return Long.parseLong(name.substring(dash + 1, dash + 17));
+    }
+
+    private static final class Waiter {
+        final long seq;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Waiter(long seq) { this.seq = seq; }
+    }
+}
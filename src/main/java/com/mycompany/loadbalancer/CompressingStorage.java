@@ -0,0 +1,296 @@
+package com.mycompany.loadbalancer;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Deflate layer over another ContainerStorage. The first block of each value
+ * is compressed as a sample; if it does not shrink enough the value is stored
+ * as is, so already-compressed uploads cost one sample and no more. Stored
+ * values start with a header (magic, format byte, logical length), and reads
+ * inflate as they stream rather than into memory.
+ *
+ * Lengths are read back from the headers, so a disk-backed base reopens
+ * with its sizes intact. Values without a header, stored before compression
+ * was turned on, are passed through unchanged.
+ *
+ * Deflate streams are not seekable: a range read of a compressed value
+ * inflates from the start and discards everything before the range, so its
+ * cost grows with the offset.
+ */
+public class CompressingStorage implements ContainerStorage {
+    private static final int MAGIC = 0x4C425A31;    // "LBZ1"
+    private static final int HEADER = 13;           // magic + format byte + logical length
+    private static final byte RAW = 0, DEFLATED = 1, LEGACY = -1;
+    private static final int SAMPLE = Payload.CHUNK_SIZE;
+    private static final int MIN_LENGTH = 256;      // headers cost more than they save below this
+    private static final int IN_MEMORY_LIMIT = 1 << 20;
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final ContainerStorage base;
+    private final int level;
+    private final double maxRatio;
+    private final AtomicLong logical = new AtomicLong();
+    private final AtomicLong deflatedWrites = new AtomicLong();
+    private final AtomicLong rawWrites = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    public CompressingStorage(ContainerStorage base) {
+        this(base, Integer.getInteger("lb.compress.level", 6),
+                Double.parseDouble(System.getProperty("lb.compress.maxRatio", "0.9")));
+    }
+
+    /** @param maxRatio compress only if the sample shrinks to at most this fraction of its size */
+    public CompressingStorage(ContainerStorage base, int level, double maxRatio) {
+        this.base = base;
+        this.level = level;
+        this.maxRatio = maxRatio;
+        try {
+            for (String key : base.keys()) logical.addAndGet(logicalLength(key));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read stored lengths", e);
+        }
+    }
+
+    @Override public void write(String key, InputStream in, long length) throws IOException {
+        long old = logicalLength(key);
+        byte[] sample = in.readNBytes((int) Math.min(SAMPLE, length));
+        if (sample.length < Math.min(SAMPLE, length)) throw new EOFException("Value ended " + (length - sample.length) + " bytes early");
+        InputStream content = new SequenceInputStream(new ByteArrayInputStream(sample), new Limited(in, length - sample.length));
+
+        long start = cpuNanos();
+        boolean deflate = length >= MIN_LENGTH && worthDeflating(sample);
+        if (!deflate) {
+            compressNanos.addAndGet(cpuNanos() - start);
+            base.write(key, new SequenceInputStream(header(RAW, length), content), HEADER + length);
+            rawWrites.incrementAndGet();
+        } else {
+            Payload packed;
+            Deflater deflater = new Deflater(level);
+            try {
+                InputStream z = new DeflaterInputStream(content, deflater, Payload.CHUNK_SIZE);
+                packed = length <= IN_MEMORY_LIMIT ? Payload.of(z.readAllBytes()) : SpooledPayload.spool(z);
+            } finally {
+                deflater.end();
+                compressNanos.addAndGet(cpuNanos() - start);
+            }
+            try (InputStream packedIn = packed.open()) {
+                base.write(key, new SequenceInputStream(header(DEFLATED, length), packedIn), HEADER + packed.length());
+            } finally {
+                packed.release();
+            }
+            deflatedWrites.incrementAndGet();
+        }
+        logical.addAndGet(length - old);
+    }
+
+    @Override public StoredObject read(String key) throws IOException {
+        StoredObject stored = base.read(key);
+        if (stored == null) return null;
+        Header h;
+        try {
+            h = header(stored);
+        } catch (IOException | RuntimeException e) {
+            stored.close();
+            throw e;
+        }
+        long length = h.length;
+        if (h.format == LEGACY) return stored;
+        if (h.format == RAW) {
+            return new StoredObject() {
+                @Override public long length() { return length; }
+                @Override public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+                    stored.transferTo(HEADER + position, count, target);
+                }
+                @Override public void close() throws IOException { stored.close(); }
+            };
+        }
+        return new StoredObject() {
+            @Override public long length() { return length; }
+            // Not seekable: inflates and discards everything before position
+            @Override public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+                Inflater inflater = new Inflater();
+                long start = cpuNanos();
+                try {
+                    InputStream z = new InflaterInputStream(new ObjectStream(stored, HEADER), inflater, Payload.CHUNK_SIZE);
+                    z.skipNBytes(position);
+                    byte[] buf = new byte[Payload.CHUNK_SIZE];
+                    while (count > 0) {
+                        int r = z.read(buf, 0, (int) Math.min(buf.length, count));
+                        if (r == -1) throw new EOFException("Compressed value for " + key + " ended early");
+                        ByteBuffer b = ByteBuffer.wrap(buf, 0, r);
+                        while (b.hasRemaining()) target.write(b);
+                        count -= r;
+                    }
+                } finally {
+                    inflater.end();
+                    decompressNanos.addAndGet(cpuNanos() - start);
+                }
+            }
+            @Override public void close() throws IOException { stored.close(); }
+        };
+    }
+
+    @Override public boolean delete(String key) throws IOException {
+        long old = logicalLength(key);
+        boolean removed = base.delete(key);
+        if (removed) logical.addAndGet(-old);
+        return removed;
+    }
+
+    @Override public boolean contains(String key) { return base.contains(key); }
+    @Override public Set<String> keys() { return base.keys(); }
+    @Override public int size() { return base.size(); }
+    @Override public long bytesStored() { return logical.get(); }
+
+    @Override public Map<String, Object> stats() {
+        long logicalBytes = logical.get(), storedBytes = base.bytesStored();
+        Map<String, Object> m = new LinkedHashMap<>(base.stats());
+        m.put("compressedBytes", storedBytes);
+        m.put("compressionRatio", logicalBytes == 0 || storedBytes == 0 ? 1.0 : Math.round(100.0 * logicalBytes / storedBytes) / 100.0);
+        m.put("deflatedWrites", deflatedWrites.get());
+        m.put("rawWrites", rawWrites.get());
+        m.put("compressCpuMs", compressNanos.get() / 1_000_000);
+        m.put("decompressCpuMs", decompressNanos.get() / 1_000_000);
+        return m;
+    }
+
+    @Override public void close() throws IOException { base.close(); }
+
+    private boolean worthDeflating(byte[] sample) {
+        Deflater d = new Deflater(level);
+        try {
+            d.setInput(sample);
+            d.finish();
+            byte[] out = new byte[sample.length];
+            long packed = 0;
+            while (!d.finished()) {
+                packed += d.deflate(out);
+                if (packed > sample.length * maxRatio) return false;
+            }
+            return true;
+        } finally {
+            d.end();
+        }
+    }
+
+    private static InputStream header(byte format, long length) {
+        return new ByteArrayInputStream(ByteBuffer.allocate(HEADER).putInt(MAGIC).put(format).putLong(length).array());
+    }
+
+    // Logical length of a stored value, 0 if absent
+    private long logicalLength(String key) throws IOException {
+        try (StoredObject stored = base.read(key)) {
+            return stored == null ? 0 : header(stored).length;
+        }
+    }
+
+    // A value is taken as written by this layer only if its header is intact;
+    // anything else predates compression and is read as is
+    private static Header header(StoredObject stored) throws IOException {
+        long size = stored.length();
+        if (size < HEADER) return new Header(LEGACY, size);
+        ByteBuffer h = ByteBuffer.allocate(HEADER);
+        stored.transferTo(0, HEADER, new BufferChannel(h));
+        h.flip();
+        int magic = h.getInt();
+        byte format = h.get();
+        long length = h.getLong();
+        boolean ours = magic == MAGIC
+                && ((format == RAW && length == size - HEADER) || (format == DEFLATED && length >= 0));
+        return ours ? new Header(format, length) : new Header(LEGACY, size);
+    }
+
+    private static final class Header {
+        final byte format;
+        final long length;
+
+        Header(byte format, long length) { this.format = format; this.length = length; }
+    }
+
+    // Thread CPU time where the JVM can measure it (not for virtual threads), wall time otherwise
+    private static long cpuNanos() {
+        long t = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+        return t >= 0 ? t : System.nanoTime();
+    }
+
+    /** Exactly the next length bytes of another stream, without closing it. */
+    private static final class Limited extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        Limited(InputStream in, long length) { this.in = in; this.remaining = length; }
+
+        @Override public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int r = in.read(b, off, (int) Math.min(len, remaining));
+            if (r == -1) throw new EOFException("Value ended " + remaining + " bytes early");
+            remaining -= r;
+            return r;
+        }
+    }
+
+    /** Reads a StoredObject from an offset, one chunk per transfer. */
+    private static final class ObjectStream extends InputStream {
+        private final StoredObject object;
+        private final ByteBuffer buf = ByteBuffer.allocate(Payload.CHUNK_SIZE).flip();
+        private long position;
+
+        ObjectStream(StoredObject object, long position) { this.object = object; this.position = position; }
+
+        @Override public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (!buf.hasRemaining()) {
+                long n = Math.min(buf.capacity(), object.length() - position);
+                if (n <= 0) return -1;
+                buf.clear().limit((int) n);
+                object.transferTo(position, n, new BufferChannel(buf));
+                buf.flip();
+                position += n;
+            }
+            int r = Math.min(len, buf.remaining());
+            buf.get(b, off, r);
+            return r;
+        }
+    }
+
+    private static final class BufferChannel implements WritableByteChannel {
+        private final ByteBuffer dst;
+
+        BufferChannel(ByteBuffer dst) { this.dst = dst; }
+
+        @Override public int write(ByteBuffer src) {
+            int n = src.remaining();
+            dst.put(src);
+            return n;
+        }
+
+        @Override public boolean isOpen() { return true; }
+        @Override public void close() {}
+    }
+}
@@ -0,0 +1,139 @@
+package com.mycompany.loadbalancer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Places each file on the ring successors of its name's hash. Every
+ * container owns vnodes * weight points on the ring, so adding or removing
+ * one container only moves about 1/N of the keys, and a file's replica set
+ * follows from its name alone.
+ */
+public class ConsistentHashPicker implements ContainerPicker {
+    private final int vnodes;
+    private volatile Ring ring = new Ring(List.of(), new int[0], 1);
+    private final AtomicInteger ringBuilds = new AtomicInteger();
+
+    public ConsistentHashPicker() {
+        this(Integer.getInteger("lb.ring.vnodes", 128));
+    }
+
+    public ConsistentHashPicker(int vnodes) {
+        this.vnodes = Math.max(1, vnodes);
+    }
+
+    // Without a key there is nothing to hash, so fall back to the first
+    // owner clockwise of a random point.
+    @Override public FileContainer choose(List<FileContainer> healthy) {
+        List<FileContainer> one = choose(String.valueOf(System.nanoTime()), healthy, 1);
+        return one.isEmpty() ? null : one.get(0);
+    }
+
+    @Override public List<FileContainer> choose(String filename, List<FileContainer> healthy, int n) {
+        return choose(filename, healthy, n, List.of());
+    }
+
+    // The ring always spans every healthy container, so topping up a file
+    // that already has replicas reuses it and walks past the taken owners
+    @Override public List<FileContainer> choose(String filename, List<FileContainer> healthy, int n, Collection<FileContainer> taken) {
+        List<FileContainer> chosen = new ArrayList<>(n);
+        if (healthy == null || healthy.isEmpty()) return chosen;
+        Ring r = ringFor(healthy);
+        int free = 0;
+        for (FileContainer c : r.members) if (!taken.contains(c)) free++;
+        int want = Math.min(n, free);
+        int i = r.indexOf(hash(filename));
+        for (int step = 0; step < r.points.length && chosen.size() < want; step++) {
+            FileContainer c = r.owners[(i + step) % r.points.length];
+            if (!chosen.contains(c) && !taken.contains(c)) chosen.add(c);
+        }
+        return chosen;
+    }
+
+    @Override public String name() { return "Consistent-Hash"; }
+
+    // The ring is rebuilt only when membership or a weight changes
+    private Ring ringFor(List<FileContainer> healthy) {
+        Ring r = ring;
+        if (r.matches(healthy)) return r;
+        List<FileContainer> members = new ArrayList<>(healthy);
+        int[] weights = new int[members.size()];
+        for (int i = 0; i < weights.length; i++) weights[i] = weightOf(members.get(i));
+        r = new Ring(members, weights, vnodes);
+        ring = r;
+        ringBuilds.incrementAndGet();
+        return r;
+    }
+
+    /** How many times the ring has been built, for tests. */
+    int ringBuilds() { return ringBuilds.get(); }
+
+    private static int weightOf(FileContainer c) {
+        return Math.max(1, Math.min(FileContainer.MAX_WEIGHT, c.weight));
+    }
+
+    // 64-bit FNV-1a followed by a murmur finaliser to spread similar names
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+        return h;
+    }
+
+    private static final class Ring {
+        final List<FileContainer> members;
+        final int[] weights;
+        final long[] points;
+        final FileContainer[] owners;
+
+        Ring(List<FileContainer> members, int[] weights, int vnodes) {
+            this.members = members;
+            this.weights = weights;
+            int total = 0;
+            for (int w : weights) total += w * vnodes;
+            long[] raw = new long[total];
+            FileContainer[] rawOwners = new FileContainer[total];
+            int k = 0;
+            for (int m = 0; m < members.size(); m++) {
+                FileContainer c = members.get(m);
+                for (int v = 0; v < weights[m] * vnodes; v++) {
+                    raw[k] = hash(c.id + "#" + v);
+                    rawOwners[k++] = c;
+                }
+            }
+            Integer[] order = new Integer[total];
+            for (int i = 0; i < total; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> Long.compare(raw[a], raw[b]));
+            this.points = new long[total];
+            this.owners = new FileContainer[total];
+            for (int i = 0; i < total; i++) {
+                points[i] = raw[order[i]];
+                owners[i] = rawOwners[order[i]];
+            }
+        }
+
+        boolean matches(List<FileContainer> healthy) {
+            if (!members.equals(healthy)) return false;
+            for (int i = 0; i < weights.length; i++) if (weights[i] != weightOf(members.get(i))) return false;
+            return true;
+        }
+
+        // First point at or after h, wrapping to the start of the ring
+        int indexOf(long h) {
+            int i = Arrays.binarySearch(points, h);
+            if (i < 0) i = -i - 1;
+            return i == points.length ? 0 : i;
+        }
+    }
+}
@@ -1,8 +1,45 @@
 package com.mycompany.loadbalancer;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 public interface ContainerPicker {
     FileContainer choose(List<FileContainer> healthy);
     String name();
-}
\ No newline at end of file
+
+    /**
+     * Picks up to n distinct containers for the replicas of one file.
+     * The default calls choose() repeatedly on the containers not yet taken.
+     */
+    default List<FileContainer> choose(List<FileContainer> healthy, int n) {
+        List<FileContainer> remaining = new ArrayList<>(healthy);
+        List<FileContainer> chosen = new ArrayList<>(n);
+        while (chosen.size() < n && !remaining.isEmpty()) {
+            FileContainer c = choose(remaining);
+            if (c == null) break;
+            remaining.remove(c);
+            chosen.add(c);
+        }
+        return chosen;
+    }
+
+    /**
+     * Picks replicas for a named file. Pickers that place by key override
+     * this; the rest ignore the name.
+     */
+    default List<FileContainer> choose(String filename, List<FileContainer> healthy, int n) {
+        return choose(healthy, n);
+    }
+
+    /**
+     * Picks up to n more replicas for a file already on the taken
+     * containers. The default picks by name among the healthy ones not taken.
+     */
+    default List<FileContainer> choose(String filename, List<FileContainer> healthy, int n, Collection<FileContainer> taken) {
+        if (taken.isEmpty()) return choose(filename, healthy, n);
+        List<FileContainer> rest = new ArrayList<>(healthy);
+        rest.removeAll(taken);
+        return rest.isEmpty() ? new ArrayList<>() : choose(filename, rest, n);
+    }
+}
@@ -0,0 +1,68 @@
+package com.mycompany.loadbalancer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Where a FileContainer keeps file content. Writes take a stream so large
+ * uploads move through in chunks instead of as one array.
+ */
+public interface ContainerStorage {
+    /** Stores length bytes from in under key, replacing any previous value. */
+    void write(String key, InputStream in, long length) throws IOException;
+
+    /** Opens the stored value for reading, or returns null if the key is absent. */
+    StoredObject read(String key) throws IOException;
+
+    /** @return true if the key was present */
+    boolean delete(String key) throws IOException;
+
+    boolean contains(String key);
+
+    /** The stored keys, as a read-only live view. */
+    Set<String> keys();
+
+    /** Number of stored files. */
+    int size();
+
+    /** Bytes of content currently stored. */
+    long bytesStored();
+
+    /** Engine-specific counters for /metrics. */
+    default Map<String, Object> stats() { return Map.of(); }
+
+    /** Releases files and background work; objects already read stay readable. */
+    default void close() throws IOException {}
+
+    /**
+     * Whether disk engines force each write to disk before it returns, so a
+     * replica the catalog records is never lost in a crash. Set with
+     * -Dlb.storage.fsync; on by default when the catalog is persistent
+     * (-Dlb.catalogDir), since the catalog would otherwise outlive the data.
+     */
+    static boolean syncWrites() {
+        String v = System.getProperty("lb.storage.fsync");
+        return v != null ? Boolean.parseBoolean(v) : System.getProperty("lb.catalogDir") != null;
+    }
+
+    /**
+     * Storage for one container, chosen with -Dlb.storage=heap|offheap|disk|log.
+     * -Dlb.compress=true adds compression over it and -Dlb.dedup=true adds
+     * deduplication on top, so chunks are matched before they are compressed.
+     */
+    static ContainerStorage create(String containerId) {
+        ContainerStorage base;
+        String kind = System.getProperty("lb.storage", "heap").toLowerCase();
+        switch (kind) {
+            case "disk": base = new FileStorage(Paths.get(System.getProperty("lb.dataDir", "lb-data"), containerId)); break;
+            case "log": base = new SegmentStorage(Paths.get(System.getProperty("lb.dataDir", "lb-data"), containerId)); break;
+            case "offheap": base = new SlabStorage(); break;
+            default: base = new HeapStorage();
+        }
+        if (Boolean.getBoolean("lb.compress")) base = new CompressingStorage(base);
+        return Boolean.getBoolean("lb.dedup") ? new DedupStorage(base) : base;
+    }
+}
@@ -0,0 +1,319 @@
+package com.mycompany.loadbalancer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Deduplicating layer over another ContainerStorage. Content is split into
+ * content-defined chunks with a gear rolling hash, each chunk is named by
+ * its SHA-256, and a chunk is written to the backend once however many files
+ * contain it. Files are kept as manifests of chunk hashes; chunk reference
+ * counts drop on delete and the chunk goes when nothing refers to it.
+ *
+ * Each manifest is also stored in the backend, under "manifest:" and the
+ * file's key, after its chunks. On a persistent backend the manifests and
+ * reference counts are rebuilt from there at startup, and chunks that no
+ * manifest names (a write cut short by a crash) are deleted.
+ */
+public class DedupStorage implements ContainerStorage {
+    private static final int MIN_CHUNK = 2 * 1024;
+    private static final int MAX_CHUNK = 64 * 1024;
+    private static final long BOUNDARY_MASK = 0x1FFFL << 40; // 13 bits: ~8 KB average chunk
+    private static final long[] GEAR = new long[256];
+    static {
+        Random r = new Random(0x5EED);
+        for (int i = 0; i < GEAR.length; i++) GEAR[i] = r.nextLong();
+    }
+
+    private final ContainerStorage chunkStore;
+    private final Map<String, Manifest> manifests = new ConcurrentHashMap<>();
+    private final Map<String, Chunk> chunks = new ConcurrentHashMap<>();
+    private static final String MANIFEST_PREFIX = "manifest:";
+
+    // Stripes guard chunk reference counts. They are locks rather than
+    // monitors because a new chunk is written to the backend while held.
+    private final ReentrantLock[] stripes = new ReentrantLock[64];
+    private final AtomicLong logicalBytes = new AtomicLong();
+    private final AtomicLong physicalBytes = new AtomicLong();
+
+    public DedupStorage(ContainerStorage chunkStore) {
+        this.chunkStore = chunkStore;
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new ReentrantLock();
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot load dedup manifests", e);
+        }
+    }
+
+    @Override public void write(String key, InputStream in, long length) throws IOException {
+        MessageDigest sha = sha256();
+        List<String> hashes = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        byte[] chunk = new byte[MAX_CHUNK];
+        byte[] buf = new byte[Payload.CHUNK_SIZE];
+        int fill = 0;
+        long h = 0, remaining = length;
+        try {
+            while (remaining > 0) {
+                int r = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (r == -1) throw new EOFException("Value ended " + remaining + " bytes early");
+                remaining -= r;
+                for (int i = 0; i < r; i++) {
+                    chunk[fill++] = buf[i];
+                    h = (h << 1) + GEAR[buf[i] & 0xff];
+                    if ((fill >= MIN_CHUNK && (h & BOUNDARY_MASK) == 0) || fill == MAX_CHUNK) {
+                        hashes.add(store(sha, chunk, fill));
+                        lengths.add(fill);
+                        fill = 0;
+                        h = 0;
+                    }
+                }
+            }
+            if (fill > 0) {
+                hashes.add(store(sha, chunk, fill));
+                lengths.add(fill);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (String hash : hashes) unref(hash);
+            throw e;
+        }
+        Manifest m = new Manifest(length, hashes.toArray(new String[0]), lengths.stream().mapToInt(Integer::intValue).toArray());
+        try {
+            byte[] encoded = m.encode();
+            chunkStore.write(MANIFEST_PREFIX + key, new ByteArrayInputStream(encoded), encoded.length);
+        } catch (IOException | RuntimeException e) {
+            for (String hash : m.hashes) unref(hash);
+            throw e;
+        }
+        logicalBytes.addAndGet(length);
+        Manifest old = manifests.put(key, m);
+        if (old != null) release(old);
+    }
+
+    @Override public StoredObject read(String key) throws IOException {
+        Manifest m = manifests.get(key);
+        if (m == null) return null;
+        // Pin every chunk so a concurrent delete cannot free it mid-stream
+        for (int i = 0; i < m.hashes.length; i++) {
+            if (!ref(m.hashes[i])) {
+                for (int j = 0; j < i; j++) unref(m.hashes[j]);
+                return null; // deleted while we were pinning
+            }
+        }
+        return new StoredObject() {
+            private final AtomicBoolean closed = new AtomicBoolean();
+            @Override public long length() { return m.length; }
+            @Override public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+                long end = position + count, chunkStart = 0;
+                for (int i = 0; i < m.hashes.length && position < end; i++) {
+                    long chunkEnd = chunkStart + m.lengths[i];
+                    if (position < chunkEnd) {
+                        long n = Math.min(end, chunkEnd) - position;
+                        try (StoredObject c = chunkStore.read(m.hashes[i])) {
+                            if (c == null) throw new IOException("Missing chunk " + m.hashes[i]);
+                            c.transferTo(position - chunkStart, n, target);
+                        }
+                        position += n;
+                    }
+                    chunkStart = chunkEnd;
+                }
+            }
+            // Releasing may delete chunks, so no monitor is held
+            @Override public void close() throws IOException {
+                if (!closed.compareAndSet(false, true)) return;
+                for (String hash : m.hashes) unref(hash);
+            }
+        };
+    }
+
+    @Override public boolean delete(String key) throws IOException {
+        Manifest old = manifests.remove(key);
+        if (old == null) return false;
+        chunkStore.delete(MANIFEST_PREFIX + key);
+        release(old);
+        return true;
+    }
+
+    @Override public boolean contains(String key) { return manifests.containsKey(key); }
+    @Override public Set<String> keys() { return Collections.unmodifiableSet(manifests.keySet()); }
+    @Override public int size() { return manifests.size(); }
+    @Override public long bytesStored() { return logicalBytes.get(); }
+
+    @Override public Map<String, Object> stats() {
+        long logical = logicalBytes.get(), physical = physicalBytes.get();
+        Map<String, Object> m = new LinkedHashMap<>(chunkStore.stats());
+        m.put("chunks", chunks.size());
+        m.put("physicalBytes", physical);
+        m.put("dedupSavedBytes", logical - physical);
+        m.put("dedupRatio", logical == 0 || physical == 0 ? 1.0 : Math.round(100.0 * logical / physical) / 100.0);
+        return m;
+    }
+
+    @Override public void close() throws IOException { chunkStore.close(); }
+
+    // --- Chunks ---
+
+    private String store(MessageDigest sha, byte[] data, int len) throws IOException {
+        sha.update(data, 0, len);
+        String hash = hex(sha.digest());
+        ReentrantLock lock = stripeFor(hash);
+        lock.lock();
+        try {
+            Chunk c = chunks.get(hash);
+            if (c != null) {
+                c.refs++;
+                return hash;
+            }
+            chunkStore.write(hash, new ByteArrayInputStream(data, 0, len), len);
+            chunks.put(hash, new Chunk(len));
+            physicalBytes.addAndGet(len);
+        } finally {
+            lock.unlock();
+        }
+        return hash;
+    }
+
+    private boolean ref(String hash) {
+        ReentrantLock lock = stripeFor(hash);
+        lock.lock();
+        try {
+            Chunk c = chunks.get(hash);
+            if (c == null) return false;
+            c.refs++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void unref(String hash) throws IOException {
+        ReentrantLock lock = stripeFor(hash);
+        lock.lock();
+        try {
+            Chunk c = chunks.get(hash);
+            if (c == null || --c.refs > 0) return;
+            chunks.remove(hash);
+            physicalBytes.addAndGet(-c.length);
+            chunkStore.delete(hash);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Runs before the storage is shared, so it needs no locks
+    private void recover() throws IOException {
+        List<String> keys = new ArrayList<>(chunkStore.keys());
+        for (String k : keys) {
+            if (!k.startsWith(MANIFEST_PREFIX)) continue;
+            Manifest m;
+            try (StoredObject o = chunkStore.read(k)) {
+                if (o == null) continue;
+                ByteArrayOutputStream out = new ByteArrayOutputStream((int) o.length());
+                o.transferTo(0, o.length(), Channels.newChannel(out));
+                m = Manifest.decode(out.toByteArray());
+            }
+            manifests.put(k.substring(MANIFEST_PREFIX.length()), m);
+            logicalBytes.addAndGet(m.length);
+            for (int i = 0; i < m.hashes.length; i++) {
+                Chunk c = chunks.get(m.hashes[i]);
+                if (c == null) {
+                    chunks.put(m.hashes[i], new Chunk(m.lengths[i]));
+                    physicalBytes.addAndGet(m.lengths[i]);
+                } else {
+                    c.refs++;
+                }
+            }
+        }
+        for (String k : keys) {
+            if (!k.startsWith(MANIFEST_PREFIX) && !chunks.containsKey(k)) chunkStore.delete(k);
+        }
+    }
+
+    private void release(Manifest m) throws IOException {
+        logicalBytes.addAndGet(-m.length);
+        for (String hash : m.hashes) unref(hash);
+    }
+
+    private ReentrantLock stripeFor(String hash) {
+        return stripes[Math.floorMod(hash.hashCode(), stripes.length)];
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] b) {
+        StringBuilder sb = new StringBuilder(b.length * 2);
+        for (byte x : b) sb.append(Character.forDigit((x >> 4) & 0xf, 16)).append(Character.forDigit(x & 0xf, 16));
+        return sb.toString();
+    }
+
+    private static final class Manifest {
+        final long length;
+        final String[] hashes;
+        final int[] lengths;
+
+        Manifest(long length, String[] hashes, int[] lengths) {
+            this.length = length; this.hashes = hashes; this.lengths = lengths;
+        }
+
+        byte[] encode() throws IOException {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(12 + hashes.length * 40);
+            DataOutputStream out = new DataOutputStream(buf);
+            out.writeLong(length);
+            out.writeInt(hashes.length);
+            for (int i = 0; i < hashes.length; i++) {
+                out.writeUTF(hashes[i]);
+                out.writeInt(lengths[i]);
+            }
+            out.flush();
+            return buf.toByteArray();
+        }
+
+        static Manifest decode(byte[] data) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            long length = in.readLong();
+            int n = in.readInt();
+            String[] hashes = new String[n];
+            int[] lengths = new int[n];
+            for (int i = 0; i < n; i++) {
+                hashes[i] = in.readUTF();
+                lengths[i] = in.readInt();
+            }
+            return new Manifest(length, hashes, lengths);
+        }
+    }
+
+    // Guarded by the chunk's stripe
+    private static final class Chunk {
+        final int length;
+        int refs = 1;
+
+        Chunk(int length) { this.length = length; }
+    }
+}
@@ -0,0 +1,121 @@
+package com.mycompany.loadbalancer;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deficit round robin across users, so one user's bulk upload cannot push
+ * everyone else's requests behind it. Each user with queued jobs is visited
+ * in turn and credited weight * -Dlb.drr.quantumKB; it sends jobs, FIFO,
+ * while its credit covers their sizeKB. A user's queue exists only while it
+ * holds jobs, so memory follows the number of active users.
+ */
+public class DeficitRoundRobin implements SchedulingAlgorithm {
+    private final long quantumKB;
+    private final Map<String, Integer> weights; // absent = 1
+    private final Map<String, Flow> flows = new HashMap<>();
+    private final ArrayDeque<Flow> active = new ArrayDeque<>();
+    private long queued;
+    private volatile Runnable wakeup = () -> {};
+
+    public DeficitRoundRobin() { this(new ConcurrentHashMap<>()); }
+
+    /** Weights are read live, so the caller can keep adjusting them. */
+    public DeficitRoundRobin(Map<String, Integer> weights) {
+        this(weights, Long.getLong("lb.drr.quantumKB", 64));
+    }
+
+    public DeficitRoundRobin(Map<String, Integer> weights, long quantumKB) {
+        this.weights = weights;
+        this.quantumKB = Math.max(1, quantumKB);
+    }
+
+    @Override public void onJobArrived(Job job) {
+        synchronized (this) {
+            String user = job.user == null ? "" : job.user;
+            Flow f = flows.get(user);
+            if (f == null) {
+                f = new Flow(user);
+                flows.put(user, f);
+                active.addLast(f);
+            }
+            f.jobs.addLast(job);
+            queued++;
+        }
+        wakeup.run();
+    }
+
+    @Override public synchronized Optional<Job> nextJob() {
+        int skipped = 0;
+        while (!active.isEmpty()) {
+            Flow f = active.peekFirst();
+            if (!f.credited) {
+                f.deficit += share(f);
+                f.credited = true;
+            }
+            Job head = f.jobs.peekFirst();
+            if (head.sizeKB <= f.deficit) {
+                f.jobs.pollFirst();
+                f.deficit -= head.sizeKB;
+                queued--;
+                if (f.jobs.isEmpty()) {
+                    // Idle users keep no credit and no state
+                    active.pollFirst();
+                    flows.remove(f.user);
+                }
+                return Optional.of(head);
+            }
+            f.credited = false;
+            active.addLast(active.pollFirst());
+            if (++skipped == active.size()) {
+                skipRounds();
+                skipped = 0;
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override public void onJobCompleted(Job job) {}
+    @Override public String name() { return "Deficit-Round-Robin"; }
+    @Override public void setWakeup(Runnable wakeup) { this.wakeup = wakeup; }
+
+    @Override public synchronized Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("activeUsers", flows.size());
+        m.put("queuedJobs", queued);
+        m.put("quantumKB", quantumKB);
+        m.put("weightedUsers", weights.size());
+        return m;
+    }
+
+    private long share(Flow f) {
+        Integer w = weights.get(f.user);
+        return quantumKB * (w == null ? 1 : Math.max(1, w));
+    }
+
+    // A full pass sent nothing: every head is bigger than its user's credit.
+    // Rather than loop once per quantum, credit all users with the rounds
+    // needed until the closest one can send, minus the round about to run.
+    private void skipRounds() {
+        long rounds = Long.MAX_VALUE;
+        for (Flow f : active) {
+            long need = f.jobs.peekFirst().sizeKB - f.deficit;
+            rounds = Math.min(rounds, (need + share(f) - 1) / share(f));
+        }
+        if (rounds <= 1) return;
+        for (Flow f : active) f.deficit += (rounds - 1) * share(f);
+    }
+
+    private static final class Flow {
+        final String user;
+        final ArrayDeque<Job> jobs = new ArrayDeque<>();
+        long deficit;     // KB this user may still send this round
+        boolean credited; // whether this visit's quantum has been added
+
+        Flow(String user) { this.user = user; }
+    }
+}
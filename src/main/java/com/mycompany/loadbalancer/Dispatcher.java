@@ -1,25 +1,59 @@
 package com.mycompany.loadbalancer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
 public class Dispatcher {
     private volatile SchedulingAlgorithm scheduler;
-    private final ContainerPicker picker;
+    // Arrivals and polls hold the read side; setScheduler() holds the write
+    // side while it moves the queued jobs, so none lands in the old one
+    private final ReentrantReadWriteLock schedulerSwap = new ReentrantReadWriteLock();
+    private SchedulingAlgorithm polledFrom; // loop thread only: where awaitJob() took its job
+    private volatile ContainerPicker picker;
     private final List<FileContainer> containers;
     private final FileCatalog catalog;
-    private final long lockTimeoutMs;
 
-    private final ExecutorService runnerPool = Executors.newCachedThreadPool();
+    // Bounded execution: at most 'workers' jobs run at once and at most
+    // 'maxQueued' wait in the scheduler; anything beyond that is rejected.
+    private final int workers;
+    private final int maxQueued;
+    private final Semaphore workerSlots;
+    private final ThreadMode threadMode;
+    private final ExecutorService runnerPool;
     private final List<JobEventListener> listeners = new CopyOnWriteArrayList<>();
     
+    private final AtomicInteger jobsQueued = new AtomicInteger(0);
     private final AtomicInteger jobsInFlight = new AtomicInteger(0);
     private final AtomicInteger jobsCompleted = new AtomicInteger(0);
     private final AtomicInteger jobsFailed = new AtomicInteger(0);
+    private final AtomicInteger jobsRejected = new AtomicInteger(0);
+
+    // Hedged reads (-Dlb.hedgedReads=true) need some latency history first
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private volatile boolean hedgedReads = Boolean.getBoolean("lb.hedgedReads");
+    private final LatencyTracker downloadLatency = new LatencyTracker();
+    private final AtomicInteger hedgesFired = new AtomicInteger(0);
+    private final AtomicInteger hedgeWins = new AtomicInteger(0);
+    private final ReadCache readCache = new ReadCache();
+    private final Map<JobType, DeadlineStats> deadlineStats = new EnumMap<>(JobType.class);
+
+    // Group commit of small uploads; off by default, -Dlb.batch.maxBytes=1048576 turns it on
+    private final long batchMaxBytes = Long.getLong("lb.batch.maxBytes", 0);
+    private final long batchMaxObjectBytes = Long.getLong("lb.batch.maxObjectBytes", 64L << 10);
+    private final long batchLingerMs = Long.getLong("lb.batch.lingerMs", 5);
+    private final Map<FileContainer, WriteBatcher> batchers = new ConcurrentHashMap<>();
+    private final Map<FileContainer, Map<String, Integer>> writesInFlight = new ConcurrentHashMap<>();
     private volatile boolean running = true;
+    private volatile Thread loopThread;
 
     // --- Interface for Events ---
     public interface JobEventListener {
@@ -31,12 +65,36 @@ public class Dispatcher {
 
     // --- Unified Constructor ---
     // This matches what Main.java needs: Dispatcher(catalog, containers)
+    // Pool sizes come from -Dlb.workers and -Dlb.maxQueued, the thread
+    // kind from -Dlb.threads.
     public Dispatcher(FileCatalog catalog, List<FileContainer> containers) {
+        this(catalog, containers, ThreadMode.fromProperty());
+    }
+
+    private Dispatcher(FileCatalog catalog, List<FileContainer> containers, ThreadMode mode) {
+        this(catalog, containers,
+             Integer.getInteger("lb.workers", mode.defaultWorkers()),
+             Integer.getInteger("lb.maxQueued", 10_000),
+             mode);
+    }
+
+    public Dispatcher(FileCatalog catalog, List<FileContainer> containers, int workers, int maxQueued) {
+        this(catalog, containers, workers, maxQueued, ThreadMode.PLATFORM);
+    }
+
+    public Dispatcher(FileCatalog catalog, List<FileContainer> containers, int workers, int maxQueued,
+                      ThreadMode threadMode) {
         this.catalog = catalog;
         this.containers = containers;
+        this.workers = Math.max(1, workers);
+        this.maxQueued = Math.max(1, maxQueued);
+        this.threadMode = threadMode;
+        this.workerSlots = new Semaphore(this.workers);
+        this.runnerPool = threadMode.newExecutor("job-worker-", this.workers);
         this.scheduler = new FCFS(); // Default to First-Come-First-Served
+        this.scheduler.setWakeup(this::wakeLoop);
         this.picker = new RoundRobinPicker(); // Default picker
-        this.lockTimeoutMs = 5000; // Default 5 second timeout
+        for (JobType t : JobType.values()) deadlineStats.put(t, new DeadlineStats());
         
         this.start(); // Start the background loop immediately
     }
@@ -48,153 +106,610 @@ public class Dispatcher {
     public void start() {
         Thread t = new Thread(this::loop, "dispatcher-loop");
         t.setDaemon(true); 
+        loopThread = t;
         t.start();
         System.out.println("[Dispatcher] Background loop started.");
     }
 
     public void stop() { 
         running = false; 
+        wakeLoop();
         runnerPool.shutdownNow(); 
     }
 
-    public void submit(Job job) { 
-        scheduler.onJobArrived(job); 
+    /** Outcome of offering a job to the dispatcher. */
+    public enum Admission { ACCEPTED, QUEUE_FULL, DEADLINE_UNMET }
+
+    /**
+     * Admits a job into the scheduler.
+     * @return false if the job was rejected
+     */
+    public boolean submit(Job job) { 
+        return admit(job) == Admission.ACCEPTED;
+    }
+
+    /** Like submit(), but says why a job was turned away. */
+    public Admission admit(Job job) {
+        Admission a = reserve(job);
+        if (a == Admission.ACCEPTED) enqueue(job);
+        return a;
+    }
+
+    /**
+     * The checks of admit() without queueing the job: takes a queue slot and
+     * asks the scheduler. An accepted job must then be passed to enqueue(),
+     * or to cancel() if it will not run after all.
+     */
+    public Admission reserve(Job job) {
+        if (jobsQueued.incrementAndGet() > maxQueued) {
+            jobsQueued.decrementAndGet();
+            jobsRejected.incrementAndGet();
+            return Admission.QUEUE_FULL;
+        }
+        SchedulingAlgorithm s = scheduler;
+        if (!s.admit(job)) {
+            jobsQueued.decrementAndGet();
+            jobsRejected.incrementAndGet();
+            deadlineStats.get(job.type).rejected.incrementAndGet();
+            return Admission.DEADLINE_UNMET;
+        }
+        return Admission.ACCEPTED;
+    }
+
+    /** Queues a job that reserve() accepted. */
+    public void enqueue(Job job) {
         listeners.forEach(l -> l.onQueued(job));
+        schedulerSwap.readLock().lock();
+        try {
+            scheduler.onJobArrived(job);
+        } finally {
+            schedulerSwap.readLock().unlock();
+        }
+    }
+
+    /** Gives back the queue slot of a job that reserve() accepted but will not run. */
+    public void cancel(Job job) {
+        jobsQueued.decrementAndGet();
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Container operations that can run at once: what the healthy containers
+     * serve in parallel, capped by the worker pool.
+     */
+    public int serviceCapacity() {
+        int slots = 0;
+        // The list is a synchronized one that admin requests change, so
+        // iterating it takes its monitor
+        synchronized (containers) {
+            for (FileContainer c : containers) if (c.isHealthy()) slots += c.parallelism();
+        }
+        return Math.max(1, Math.min(workers, slots));
+    }
+
+    /**
+     * Switches policy. Jobs still queued in the old scheduler move to the
+     * new one; any the new one does not admit fail and give back their
+     * queue slot. Running jobs report completion to the scheduler that
+     * dispatched them.
+     */
+    public void setScheduler(SchedulingAlgorithm s) {
+        s.setWakeup(this::wakeLoop);
+        List<Job> refused = new ArrayList<>();
+        schedulerSwap.writeLock().lock();
+        try {
+            SchedulingAlgorithm old = this.scheduler;
+            this.scheduler = s;
+            for (Optional<Job> next = old.nextJob(); next.isPresent(); next = old.nextJob()) {
+                Job job = next.get();
+                old.onJobCompleted(job); // it never ran, but polling may have counted it as running
+                if (s.admit(job)) s.onJobArrived(job);
+                else refused.add(job);
+            }
+        } finally {
+            schedulerSwap.writeLock().unlock();
+        }
+        for (Job job : refused) {
+            jobsQueued.decrementAndGet();
+            jobsRejected.incrementAndGet();
+            if (job.payload != null) job.payload.release();
+            job.done.completeExceptionally(new RejectedExecutionException(s.name() + " did not admit job " + job.id));
+        }
+        wakeLoop();
+    }
+
+    public void setPicker(ContainerPicker p) {
+        this.picker = p;
+    }
+
+    public void setHedgedReads(boolean enabled) {
+        this.hedgedReads = enabled;
     }
 
-    public void setScheduler(SchedulingAlgorithm s) { 
-        this.scheduler = s; 
+    // Called by the scheduler on every arrival. An unpark issued before the
+    // loop parks is remembered as a permit, so no arrival can be missed.
+    private void wakeLoop() {
+        Thread t = loopThread;
+        if (t != null) LockSupport.unpark(t);
     }
 
     private void loop() {
         while (running) {
-            Optional<Job> maybe = scheduler.nextJob();
-            if (maybe.isEmpty()) { 
-                try { Thread.sleep(100); } catch (InterruptedException ignored) {} 
-                continue; 
-            }
-            
-            Job job = maybe.get();
+            // Only take a job off the scheduler once a worker is free, so the
+            // backlog stays in the scheduler where its ordering applies.
+            try { workerSlots.acquire(); } catch (InterruptedException e) { break; }
+            Job job = awaitJob();
+            if (job == null) { workerSlots.release(); break; }
+            SchedulingAlgorithm from = polledFrom;
+
+            jobsQueued.decrementAndGet();
             jobsInFlight.incrementAndGet();
             
-            runnerPool.submit(() -> {
+            runnerPool.execute(() -> {
+                CompletableFuture<?> work;
                 try {
                     listeners.forEach(l -> l.onStarted(job));
-                    execute(job);
-                    scheduler.onJobCompleted(job);
-                    jobsCompleted.incrementAndGet();
-                    listeners.forEach(l -> l.onCompleted(job));
+                    work = execute(job);
                 } catch (Exception e) {
-                    jobsFailed.incrementAndGet();
-                    System.err.println("Job failed " + job.id + ": " + e.getMessage());
-                    listeners.forEach(l -> l.onFailed(job, e));
-                } finally {
-                    jobsInFlight.decrementAndGet();
+                    work = CompletableFuture.failedFuture(e);
                 }
+                // The job keeps its worker slot until its container operations
+                // finish, but no thread waits for them.
+                work.whenComplete((result, err) -> finish(job, from, result, err));
             });
         }
     }
 
+    private void finish(Job job, SchedulingAlgorithm from, Object result, Throwable err) {
+        try {
+            from.onJobCompleted(job);
+            recordDeadline(job, err == null);
+            if (err == null) {
+                jobsCompleted.incrementAndGet();
+                listeners.forEach(l -> l.onCompleted(job));
+                if (result instanceof StoredObject && job.returnContent) {
+                    job.done.complete((StoredObject) result);
+                } else {
+                    if (result instanceof StoredObject) closeQuietly((StoredObject) result);
+                    job.done.complete(null);
+                }
+            } else {
+                Throwable cause = (err instanceof CompletionException && err.getCause() != null) ? err.getCause() : err;
+                jobsFailed.incrementAndGet();
+                System.err.println("Job failed " + job.id + ": " + cause.getMessage());
+                listeners.forEach(l -> l.onFailed(job, cause));
+                job.done.completeExceptionally(cause);
+            }
+        } finally {
+            jobsInFlight.decrementAndGet();
+            workerSlots.release();
+        }
+    }
+
+    // Best-effort jobs were admitted knowing they would miss, so they are
+    // counted apart from the miss rate
+    private void recordDeadline(Job job, boolean ok) {
+        if (job.deadlineAt <= 0) return;
+        DeadlineStats d = deadlineStats.get(job.type);
+        if (job.bestEffort) { d.downgraded.incrementAndGet(); return; }
+        d.finished.incrementAndGet();
+        if (!ok || System.currentTimeMillis() > job.deadlineAt) d.missed.incrementAndGet();
+    }
+
+    private WriteBatcher batcherFor(FileContainer c) {
+        return batchers.computeIfAbsent(c, k -> new WriteBatcher(k, batchMaxBytes, batchLingerMs));
+    }
+
+    private Job awaitJob() {
+        while (running) {
+            Optional<Job> maybe;
+            schedulerSwap.readLock().lock();
+            try {
+                polledFrom = scheduler;
+                maybe = polledFrom.nextJob();
+            } finally {
+                schedulerSwap.readLock().unlock();
+            }
+            if (maybe.isPresent()) return maybe.get();
+            LockSupport.park(this);
+        }
+        return null;
+    }
+
     private List<FileContainer> healthyContainers() {
-        return containers.stream()
-                .filter(FileContainer::isHealthy)
-                .collect(Collectors.toList());
+        synchronized (containers) {
+            return containers.stream()
+                    .filter(FileContainer::isHealthy)
+                    .collect(Collectors.toList());
+        }
     }
 
-    private void execute(Job job) throws Exception {
+    private CompletableFuture<?> execute(Job job) throws Exception {
         switch (job.type) {
-            case UPLOAD: handleUpload(job); break;
-            case DOWNLOAD: handleDownload(job); break;
-            case DELETE: handleDelete(job); break;
+            case UPLOAD: return handleUpload(job);
+            case DOWNLOAD: return handleDownload(job);
+            case DELETE: return handleDelete(job);
+            case DELETE_PREFIX: return handleDeletePrefix(job);
+            default: throw new IllegalArgumentException("Unknown job type " + job.type);
         }
     }
 
-    private void handleUpload(Job job) throws Exception {
+    private CompletableFuture<Void> handleUpload(Job job) throws Exception {
+        readCache.invalidate(job.filename);
         List<FileContainer> healthy = healthyContainers();
-        if (healthy.isEmpty()) throw new IllegalStateException("No healthy containers available.");
-
         int rf = Math.min(catalog.getReplicationFactor(), healthy.size());
-        ArrayList<FileContainer> chosen = new ArrayList<>();
-        
-        // Simple selection: Round robin or Picker logic
-        for (int i = 0; i < rf; i++) {
-            chosen.add(healthy.get(i % healthy.size()));
+        List<FileContainer> chosen = placementFor(job.filename, healthy, rf);
+        if (chosen.isEmpty()) {
+            if (job.payload != null) job.payload.release();
+            throw new IllegalStateException("No healthy containers available.");
         }
+        rf = chosen.size();
 
+        int w = catalog.getWriteQuorum();
+        int quorum = (w <= 0 || w > rf) ? rf : w;
+        Payload data = job.payload != null ? job.payload : Payload.filler(job.sizeKB * 1024L);
+
+        // All replicas are written in parallel; the job completes after
+        // 'quorum' of them and the rest are catalogued as they land.
+        QuorumWrite write = new QuorumWrite(job.filename, data, chosen.size(), quorum);
+        // Small uploads are group-committed per container unless the
+        // scheduler needs to preempt them between slices
+        boolean batched = batchMaxBytes > 0 && data.length() <= batchMaxObjectBytes && scheduler.preemptionChunkMs() <= 0;
         for (FileContainer c : chosen) {
-            if (!c.lock.tryLock(lockTimeoutMs, TimeUnit.MILLISECONDS)) 
-                throw new TimeoutException("Timeout acquiring lock for " + c.id);
-            try {
-                c.activeOps.incrementAndGet();
-                simulateDelay(job);
-                c.storage.put(job.filename, job.payload != null ? job.payload : fakeContent(job.sizeKB));
-                c.totalOps.incrementAndGet();
-            } finally {
-                c.activeOps.decrementAndGet();
-                c.lock.unlock();
+            beginWrite(c, job.filename);
+            CompletableFuture<?> replica = batched
+                    ? batcherFor(c).write(job, data, scheduler.containerRank(job))
+                    : afterDelay(c, job, FileContainer.Access.WRITE, () -> {
+                        try (InputStream in = data.open()) {
+                            c.storage.write(job.filename, in, data.length());
+                        }
+                        c.totalOps.incrementAndGet();
+                        return null;
+                    });
+            replica.whenComplete((ok, err) -> {
+                endWrite(c, job.filename);
+                write.replicaDone(c, err);
+            });
+        }
+        return write.acked.thenCompose(v -> catalog.sync());
+    }
+
+    // An overwrite goes back to the healthy containers already holding the
+    // file, so it replaces their copies; the picker only fills the rest
+    private List<FileContainer> placementFor(String filename, List<FileContainer> healthy, int rf) {
+        List<FileContainer> chosen = new ArrayList<>(rf);
+        for (FileContainer c : catalog.locations(filename)) {
+            if (chosen.size() < rf && c.isHealthy() && healthy.contains(c)) chosen.add(c);
+        }
+        if (chosen.size() < rf) chosen.addAll(picker.choose(filename, healthy, rf - chosen.size(), chosen));
+        return chosen;
+    }
+
+    /** Tracks one upload's replica writes against its write quorum. */
+    private final class QuorumWrite {
+        final String filename;
+        final Payload payload;
+        final int replicas, quorum;
+        final List<FileContainer> written = new ArrayList<>();
+        final CompletableFuture<Void> acked = new CompletableFuture<>();
+        int failed, finished;
+        long version; // what the catalog placed at quorum
+
+        QuorumWrite(String filename, Payload payload, int replicas, int quorum) {
+            this.filename = filename; this.payload = payload; this.replicas = replicas; this.quorum = quorum;
+        }
+
+        synchronized void replicaDone(FileContainer c, Throwable err) {
+            if (++finished == replicas) payload.release();
+            if (err != null) {
+                failed++;
+                if (acked.isDone()) {
+                    System.err.println("Lagging replica of " + filename + " on " + c.id + " failed: " + err.getMessage());
+                } else if (replicas - failed < quorum) {
+                    acked.completeExceptionally(err);
+                    written.forEach(x -> discardReplica(x, filename));
+                }
+                return;
+            }
+            written.add(c);
+            if (acked.isDone()) {
+                // A lagging replica only joins the version its upload placed
+                if (acked.isCompletedExceptionally() || !catalog.addReplica(filename, c, version)) {
+                    discardReplica(c, filename);
+                }
+            } else if (written.size() == quorum) {
+                version = catalog.place(filename, written, old -> discardReplica(old, filename));
+                readCache.invalidate(filename);
+                acked.complete(null);
             }
         }
-        catalog.place(job.filename, chosen);
     }
 
-    private void handleDownload(Job job) throws Exception {
+    // Uploads of each file still writing to each container
+    private void beginWrite(FileContainer c, String filename) {
+        writesInFlight.computeIfAbsent(c, k -> new ConcurrentHashMap<>()).merge(filename, 1, Integer::sum);
+    }
+
+    private void endWrite(FileContainer c, String filename) {
+        Map<String, Integer> files = writesInFlight.get(c);
+        if (files != null) files.computeIfPresent(filename, (k, n) -> n == 1 ? null : n - 1);
+    }
+
+    /**
+     * Deletes a replica the catalog did not take: its upload failed, or the
+     * file was deleted or replaced before it landed. The bytes stay if the
+     * catalog lists the container for the file again, or if another upload
+     * of the file is still writing there and will own them.
+     */
+    private void discardReplica(FileContainer c, String filename) {
+        c.submit(0, filename, FileContainer.Access.WRITE, () -> {
+            Map<String, Integer> pending = writesInFlight.get(c);
+            boolean claimed = catalog.locations(filename).contains(c) || (pending != null && pending.containsKey(filename));
+            if (!claimed) c.storage.delete(filename);
+            return null;
+        });
+    }
+
+    private CompletableFuture<StoredObject> handleDownload(Job job) throws Exception {
+        // Hits are answered here without queueing on a container
+        long version = catalog.version(job.filename);
+        byte[] cached = readCache.get(job.filename, version);
+        if (cached != null) return CompletableFuture.completedFuture(StoredObject.of(cached));
+
         Set<FileContainer> locs = catalog.locations(job.filename);
         if (locs.isEmpty()) throw new FileNotFoundException("File not in catalog: " + job.filename);
         
-        FileContainer c = locs.stream()
+        // Least-loaded healthy replica first, so hot files spread across siblings
+        List<FileContainer> replicas = locs.stream()
                 .filter(FileContainer::isHealthy)
-                .findFirst()
-                .orElseThrow(() -> new IllegalStateException("All replicas are offline for " + job.filename));
+                .sorted(Comparator.comparingDouble(FileContainer::loadScore))
+                .collect(Collectors.toList());
+        if (replicas.isEmpty()) throw new IllegalStateException("All replicas are offline for " + job.filename);
+
+        long start = System.nanoTime();
+        CompletableFuture<StoredObject> read = (hedgedReads && replicas.size() > 1)
+                ? new HedgedRead(job, replicas).result
+                : readReplica(job, replicas.get(0));
+        return read.whenComplete((ok, err) -> {
+            if (err == null) downloadLatency.record((System.nanoTime() - start) / 1_000_000.0);
+        }).thenApply(obj -> fillCache(job.filename, version, obj));
+    }
 
-        if (!c.lock.tryLock(lockTimeoutMs, TimeUnit.MILLISECONDS)) 
-            throw new TimeoutException("Lock timeout on " + c.id);
+    // Copies a small enough object into the cache and serves the copy instead.
+    // A stale read that lands after an upload is filed under the old version,
+    // which no later lookup asks for.
+    private StoredObject fillCache(String filename, long version, StoredObject obj) {
+        if (version == 0 || !readCache.admits(obj.length())) return obj;
+        ByteArrayOutputStream copy = new ByteArrayOutputStream((int) obj.length());
         try {
-            c.activeOps.incrementAndGet();
-            simulateDelay(job);
-            // In a real system, data would be streamed here
+            obj.transferTo(0, obj.length(), Channels.newChannel(copy));
+        } catch (IOException e) {
+            throw new CompletionException(e);
         } finally {
-            c.activeOps.decrementAndGet();
-            c.lock.unlock();
+            closeQuietly(obj);
+        }
+        byte[] data = copy.toByteArray();
+        if (catalog.version(filename) == version) readCache.put(filename, version, data);
+        return StoredObject.of(data);
+    }
+
+    private CompletableFuture<StoredObject> readReplica(Job job, FileContainer c) {
+        return afterDelay(c, job, FileContainer.Access.READ, () -> {
+            StoredObject obj = c.storage.read(job.filename);
+            if (obj == null) throw new FileNotFoundException(job.filename + " missing on " + c.id);
+            return obj;
+        });
+    }
+
+    private static void closeQuietly(StoredObject obj) {
+        try { obj.close(); } catch (IOException ignored) {}
+    }
+
+    /**
+     * Reads from the best replica and, if it has not answered within the
+     * recent p95 download latency, also from the next one. The first success
+     * wins and the other request is cancelled if it is still queued. A
+     * failed primary triggers the backup straight away.
+     */
+    private final class HedgedRead {
+        final Job job;
+        final List<FileContainer> replicas;
+        final CompletableFuture<StoredObject> result = new CompletableFuture<>();
+        CompletableFuture<StoredObject> primary, backup;
+        boolean primaryFailed, backupFailed;
+
+        HedgedRead(Job job, List<FileContainer> replicas) {
+            this.job = job;
+            this.replicas = replicas;
+            primary = readReplica(job, replicas.get(0));
+            primary.whenComplete((obj, err) -> done(true, obj, err));
+            if (downloadLatency.count() >= MIN_HEDGE_SAMPLES) {
+                long after = Math.max(1, (long) downloadLatency.percentile(95));
+                CompletableFuture.delayedExecutor(after, TimeUnit.MILLISECONDS).execute(this::hedge);
+            }
+        }
+
+        synchronized void hedge() {
+            if (result.isDone() || backup != null) return;
+            hedgesFired.incrementAndGet();
+            backup = readReplica(job, replicas.get(1));
+            backup.whenComplete((obj, err) -> done(false, obj, err));
+        }
+
+        void done(boolean fromPrimary, StoredObject obj, Throwable err) {
+            boolean lost;
+            synchronized (this) {
+                lost = result.isDone(); // the losing read also finished
+                if (!lost && err == null) {
+                    if (!fromPrimary) hedgeWins.incrementAndGet();
+                    CompletableFuture<StoredObject> loser = fromPrimary ? backup : primary;
+                    if (loser != null) loser.cancel(false);
+                    result.complete(obj);
+                    return;
+                }
+                if (!lost) {
+                    if (fromPrimary) primaryFailed = true; else backupFailed = true;
+                    if (primaryFailed && backupFailed) { result.completeExceptionally(err); return; }
+                    if (!primaryFailed || backup != null) return; // the other read may still succeed
+                    hedgesFired.incrementAndGet();
+                    backup = readReplica(job, replicas.get(1));
+                }
+            }
+            // Closing may touch the disk, so it happens outside the monitor
+            if (lost) {
+                if (obj != null) closeQuietly(obj);
+                return;
+            }
+            backup.whenComplete((o, e) -> done(false, o, e));
         }
     }
 
-    private void handleDelete(Job job) throws Exception {
+    private CompletableFuture<Void> handleDelete(Job job) throws Exception {
+        readCache.invalidate(job.filename);
         Set<FileContainer> locs = catalog.locations(job.filename);
+        List<CompletableFuture<Object>> removals = new ArrayList<>();
         for (FileContainer c : locs) {
             if (!c.isHealthy()) continue;
-            if (c.lock.tryLock(lockTimeoutMs, TimeUnit.MILLISECONDS)) {
-                try {
-                    c.activeOps.incrementAndGet();
-                    c.storage.remove(job.filename);
-                    c.totalOps.incrementAndGet();
-                } finally {
-                    c.activeOps.decrementAndGet();
-                    c.lock.unlock();
-                }
-            }
+            removals.add(c.submit(scheduler.containerRank(job), job.filename, FileContainer.Access.WRITE, () -> {
+                c.storage.delete(job.filename);
+                c.totalOps.incrementAndGet();
+                return null;
+            }));
         }
         // Remove from catalog completely
-        locs.forEach(c -> catalog.removeReplica(job.filename, c));
+        return CompletableFuture.allOf(removals.toArray(new CompletableFuture<?>[0]))
+                .thenRun(() -> {
+                    locs.forEach(c -> catalog.removeReplica(job.filename, c));
+                    readCache.invalidate(job.filename);
+                })
+                .thenCompose(v -> catalog.sync());
     }
 
-    private void simulateDelay(Job job) throws InterruptedException {
-        // Base delay on size: 10ms per KB, min 100ms
-        long ms = Math.max(100, job.sizeKB * 10L); 
-        Thread.sleep(ms);
+    /**
+     * Deletes every file under the prefix in job.filename. Files are grouped
+     * by container and each container gets one operation for its whole
+     * batch, instead of one queued job and lock round-trip per file.
+     */
+    private CompletableFuture<Void> handleDeletePrefix(Job job) throws Exception {
+        Map<FileContainer, List<String>> batches = new HashMap<>();
+        List<String> files = catalog.list(job.filename, null, Integer.MAX_VALUE);
+        for (String f : files) {
+            readCache.invalidate(f);
+            for (FileContainer c : catalog.locations(f)) batches.computeIfAbsent(c, k -> new ArrayList<>()).add(f);
+        }
+        List<CompletableFuture<Object>> removals = new ArrayList<>();
+        batches.forEach((c, batch) -> {
+            if (!c.isHealthy()) return;
+            removals.add(c.submit(scheduler.containerRank(job), () -> {
+                for (String f : batch) c.storage.delete(f);
+                c.totalOps.incrementAndGet();
+                return null;
+            }));
+        });
+        return CompletableFuture.allOf(removals.toArray(new CompletableFuture<?>[0]))
+                .thenRun(() -> {
+                    batches.forEach((c, batch) -> batch.forEach(f -> catalog.removeReplica(f, c)));
+                    files.forEach(readCache::invalidate);
+                })
+                .thenCompose(v -> catalog.sync());
+    }
+
+    /**
+     * Runs work on the job's file on c after the job's simulated delay.
+     * Under a preemptive scheduler the delay is served in chunks, each queued
+     * on the container separately at the job's current rank, so another job
+     * can run on the container between two chunks.
+     */
+    private <T> CompletableFuture<T> afterDelay(FileContainer c, Job job, FileContainer.Access access, Callable<T> work) {
+        long chunk = scheduler.preemptionChunkMs();
+        if (chunk <= 0) {
+            return c.submit(scheduler.containerRank(job), job.filename, access, () -> {
+                simulateDelay(job);
+                return work.call();
+            });
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        runChunk(c, job, access, work, job.simulatedMs(), chunk, result);
+        return result;
+    }
+
+    private <T> void runChunk(FileContainer c, Job job, FileContainer.Access access, Callable<T> work,
+                              long remaining, long chunk, CompletableFuture<T> result) {
+        long slice = Math.min(chunk, remaining);
+        boolean last = slice == remaining;
+        c.submit(scheduler.containerRank(job), job.filename, access, () -> {
+            Thread.sleep(slice);
+            job.remainingMs = remaining - slice;
+            return last ? work.call() : null;
+        }).whenComplete((value, err) -> {
+            if (err != null) {
+                result.completeExceptionally(err);
+            } else if (last) {
+                // Cancelled meanwhile (a hedged read lost): close what nobody will read
+                if (!result.complete(value) && value instanceof StoredObject) closeQuietly((StoredObject) value);
+            } else if (!result.isDone()) {
+                runChunk(c, job, access, work, remaining - slice, chunk, result);
+            }
+        });
     }
 
-    private byte[] fakeContent(int sizeKB) {
-        byte[] data = new byte[sizeKB * 1024]; 
-        Arrays.fill(data, (byte) 'x'); 
-        return data;
+    private void simulateDelay(Job job) throws InterruptedException {
+        // Base delay on size: 10ms per KB, min 100ms
+        Thread.sleep(job.simulatedMs());
     }
 
     public Map<String, Object> metrics() {
         Map<String, Object> m = new LinkedHashMap<>();
+        m.put("jobsQueued", jobsQueued.get());
+        m.put("maxQueued", maxQueued);
         m.put("jobsInFlight", jobsInFlight.get());
+        m.put("workers", workers);
+        m.put("threadMode", threadMode.name());
         m.put("jobsCompleted", jobsCompleted.get());
         m.put("jobsFailed", jobsFailed.get());
+        m.put("jobsRejected", jobsRejected.get());
         m.put("scheduler", scheduler != null ? scheduler.getClass().getSimpleName() : "None");
+        Map<String, Object> schedulerStats = scheduler != null ? scheduler.metrics() : Map.of();
+        if (!schedulerStats.isEmpty()) m.put("schedulerStats", schedulerStats);
+        m.put("picker", picker.name());
+        m.put("downloadP95Ms", downloadLatency.percentile(95));
+        m.put("downloadP99Ms", downloadLatency.percentile(99));
+        m.put("hedgedReads", hedgedReads);
+        m.put("hedgesFired", hedgesFired.get());
+        m.put("hedgeWins", hedgeWins.get());
+        m.putAll(readCache.stats());
+        long batches = 0, batchedWrites = 0;
+        for (WriteBatcher b : batchers.values()) { batches += b.batches(); batchedWrites += b.batchedWrites(); }
+        m.put("writeBatches", batches);
+        m.put("batchedWrites", batchedWrites);
+        m.put("avgBatchWrites", batches == 0 ? 0.0 : Math.round(10.0 * batchedWrites / batches) / 10.0);
+        Map<String, Object> deadlines = new LinkedHashMap<>();
+        deadlineStats.forEach((type, d) -> { if (d.any()) deadlines.put(type.name(), d.toMap()); });
+        if (!deadlines.isEmpty()) m.put("deadlines", deadlines);
         return m;
     }
+
+    /** Outcomes of the jobs of one type that carried a deadline. */
+    private static final class DeadlineStats {
+        final AtomicInteger finished = new AtomicInteger();
+        final AtomicInteger missed = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final AtomicInteger downgraded = new AtomicInteger();
+
+        boolean any() { return finished.get() + rejected.get() + downgraded.get() > 0; }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            int f = finished.get(), x = missed.get();
+            m.put("finished", f);
+            m.put("missed", x);
+            m.put("missRate", f == 0 ? 0.0 : Math.round(1000.0 * x / f) / 1000.0);
+            m.put("rejected", rejected.get());
+            m.put("downgraded", downgraded.get());
+            return m;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,131 @@
+package com.mycompany.loadbalancer;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Earliest Deadline First. Jobs with a deadline run in deadline order; jobs
+ * without one (or downgraded to best-effort) are ordered as if due
+ * -Dlb.edf.bestEffortMs after arrival, so they still run under load.
+ *
+ * Admission predicts when a job would finish: the work that would run
+ * before it and the work still running, spread over the operations the
+ * containers can serve at once, plus its own service time. A job that would
+ * miss its deadline is rejected, or with -Dlb.edf.onMiss=downgrade queued
+ * as best-effort instead.
+ */
+public class EarliestDeadlineFirst implements SchedulingAlgorithm {
+    private final IntSupplier capacity;
+    private final long bestEffortMs = Long.getLong("lb.edf.bestEffortMs", 30_000);
+    private final boolean downgrade = "downgrade".equalsIgnoreCase(System.getProperty("lb.edf.onMiss"));
+    private final PriorityBlockingQueue<Job> deadlines = new PriorityBlockingQueue<>(11,
+            Comparator.<Job>comparingLong(j -> j.deadlineAt).thenComparingLong(j -> j.arrivedAt));
+    // Best-effort jobs are due in arrival order, so a FIFO keeps them sorted
+    private final ConcurrentLinkedQueue<Job> bestEffort = new ConcurrentLinkedQueue<>();
+    // Running sums of simulated work, so admission never walks the queues
+    private final AtomicLong deadlineWorkMs = new AtomicLong();
+    private final AtomicLong bestEffortWorkMs = new AtomicLong();
+    private final AtomicLong runningWorkMs = new AtomicLong();
+    // Running jobs and when they were dispatched
+    private final Map<Job, Long> running = new ConcurrentHashMap<>();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong downgraded = new AtomicLong();
+    private volatile Runnable wakeup = () -> {};
+
+    /** capacity: how many container operations can run at once right now. */
+    public EarliestDeadlineFirst(IntSupplier capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override public boolean admit(Job job) {
+        if (job.deadlineAt <= 0 || job.bestEffort) return true;
+        if (finishAt(job) <= job.deadlineAt) {
+            admitted.incrementAndGet();
+            return true;
+        }
+        if (!downgrade) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        job.bestEffort = true;
+        downgraded.incrementAndGet();
+        return true;
+    }
+
+    @Override public void onJobArrived(Job job) {
+        if (isBestEffort(job)) {
+            bestEffortWorkMs.addAndGet(job.simulatedMs());
+            bestEffort.offer(job);
+        } else {
+            deadlineWorkMs.addAndGet(job.simulatedMs());
+            deadlines.offer(job);
+        }
+        wakeup.run();
+    }
+
+    // Only the dispatcher loop polls, so the two heads cannot change under it
+    @Override public Optional<Job> nextJob() {
+        Job d = deadlines.peek(), b = bestEffort.peek();
+        Job job;
+        if (d != null && (b == null || d.deadlineAt <= dueAt(b))) {
+            job = deadlines.poll();
+            deadlineWorkMs.addAndGet(-job.simulatedMs());
+        } else if (b != null) {
+            job = bestEffort.poll();
+            bestEffortWorkMs.addAndGet(-job.simulatedMs());
+        } else {
+            return Optional.empty();
+        }
+        running.put(job, System.currentTimeMillis());
+        runningWorkMs.addAndGet(job.simulatedMs());
+        return Optional.of(job);
+    }
+
+    @Override public void onJobCompleted(Job job) {
+        if (running.remove(job) != null) runningWorkMs.addAndGet(-job.simulatedMs());
+    }
+
+    @Override public String name() { return "Earliest-Deadline-First"; }
+    @Override public void setWakeup(Runnable wakeup) { this.wakeup = wakeup; }
+
+    @Override public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("queued", deadlines.size() + bestEffort.size());
+        m.put("queuedWorkMs", deadlineWorkMs.get() + bestEffortWorkMs.get());
+        m.put("running", running.size());
+        m.put("capacity", capacity.getAsInt());
+        m.put("admitted", admitted.get());
+        m.put("rejected", rejected.get());
+        m.put("downgraded", downgraded.get());
+        return m;
+    }
+
+    private boolean isBestEffort(Job job) {
+        return job.deadlineAt <= 0 || job.bestEffort;
+    }
+
+    private long dueAt(Job job) {
+        return isBestEffort(job) ? job.arrivedAt + bestEffortMs : job.deadlineAt;
+    }
+
+    /**
+     * All queued deadline work counts as ahead, an upper bound that may
+     * refuse a job slightly early. Best-effort work counts once the oldest
+     * best-effort job is due before this deadline. Running jobs count in
+     * full, another upper bound.
+     */
+    private long finishAt(Job job) {
+        long ahead = runningWorkMs.get() + deadlineWorkMs.get();
+        Job oldest = bestEffort.peek();
+        if (oldest != null && dueAt(oldest) <= job.deadlineAt) ahead += bestEffortWorkMs.get();
+        return System.currentTimeMillis() + ahead / Math.max(1, capacity.getAsInt()) + job.simulatedMs();
+    }
+}
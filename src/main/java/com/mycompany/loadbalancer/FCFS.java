@@ -1,20 +1,17 @@
-
 package com.mycompany.loadbalancer;
 
 
 import java.util.Optional;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class FCFS implements SchedulingAlgorithm {
-    private final BlockingQueue<Job> q = new LinkedBlockingQueue<>();
+    private final Queue<Job> q = new ConcurrentLinkedQueue<>();
+    private volatile Runnable wakeup = () -> {};
 
-    @Override public void onJobArrived(Job job) { q.offer(job); }
-    @Override public Optional<Job> nextJob() {
-        try { return Optional.ofNullable(q.poll(250, TimeUnit.MILLISECONDS)); }
-        catch (InterruptedException e) { return Optional.empty(); }
-    }
+    @Override public void onJobArrived(Job job) { q.offer(job); wakeup.run(); }
+    @Override public Optional<Job> nextJob() { return Optional.ofNullable(q.poll()); }
     @Override public void onJobCompleted(Job job) {}
     @Override public String name() { return "FCFS"; }
+    @Override public void setWakeup(Runnable wakeup) { this.wakeup = wakeup; }
 }
@@ -1,26 +1,107 @@
 package com.mycompany.loadbalancer;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
+/**
+ * Where every file's replicas live, indexed three ways: file to containers
+ * for reads and writes, container to files so a container can be dropped
+ * without scanning the whole catalog, and filenames in sorted order so a
+ * "user:" prefix can be listed a page at a time. Changes to one file are
+ * serialised on one of a fixed set of lock stripes; readers take no lock.
+ */
 public class FileCatalog {
-    // We use a Set because Dispatcher expects unique locations for files
-    private final Map<String, Set<FileContainer>> mapping = new ConcurrentHashMap<>();
+    private static final int LOCK_STRIPES = 256;
+
+    // We use a Set because Dispatcher expects unique locations for files.
+    // Replica sets are immutable and replaced on every change.
+    private final Map<String, Replicas> mapping = new ConcurrentHashMap<>();
+    private final Map<FileContainer, Set<String>> filesByContainer = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<String> sortedNames = new ConcurrentSkipListSet<>();
+    private final Object[] stripes = new Object[LOCK_STRIPES];
+    // Drawn from one counter on every placement, so a version number is
+    // never reused for a file, even after it is deleted and uploaded again
+    private final AtomicLong nextVersion = new AtomicLong();
     private int replicationFactor = 2;
+    private int writeQuorum = 0; // 0 = wait for every replica
+    private final CatalogLog log; // null when the catalog is memory-only
 
     public FileCatalog() {
-        // Constructor is empty and ready
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new Object();
+        this.log = null;
+    }
+
+    /**
+     * A catalog persisted in dir. Whatever was recorded there is loaded
+     * first; resolver maps each recorded container id to its container.
+     */
+    public FileCatalog(Path dir, Function<String, FileContainer> resolver) throws IOException {
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new Object();
+        Map<String, FileContainer> resolved = new HashMap<>();
+        Function<String, FileContainer> lookup = id -> resolved.computeIfAbsent(id, resolver);
+        this.log = new CatalogLog(dir, new CatalogLog.Replay() {
+            @Override public void place(String filename, List<String> ids) {
+                List<FileContainer> targets = new ArrayList<>(ids.size());
+                for (String id : ids) targets.add(lookup.apply(id));
+                doPlace(filename, targets, false, null);
+            }
+            @Override public void add(String filename, String id) { doAdd(filename, lookup.apply(id), false); }
+            @Override public void remove(String filename, String id) { doRemove(filename, lookup.apply(id), false); }
+        }, mapping);
+        // Replay leaves the sorted names alone: inserting millions of them in
+        // log order costs a skip list search each, appending them sorted
+        // stays near the tail
+        String[] names = mapping.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        sortedNames.addAll(Arrays.asList(names));
     }
 
     // Matches line 115 in Dispatcher (accepting an ArrayList but storing as Set)
-    public void place(String filename, ArrayList<FileContainer> targets) {
-        mapping.put(filename, new HashSet<>(targets));
+    // Returns the version of the content now placed
+    public long place(String filename, List<FileContainer> targets) {
+        return doPlace(filename, targets, true, null);
+    }
+
+    /**
+     * Like place(), and hands each container that held the file but is not
+     * among the targets to displaced, so its old copy can be deleted.
+     */
+    public long place(String filename, List<FileContainer> targets, Consumer<FileContainer> displaced) {
+        return doPlace(filename, targets, true, displaced);
+    }
+
+    // Changes whenever the file's content is replaced; 0 if it is not catalogued
+    public long version(String filename) {
+        Replicas r = mapping.get(filename);
+        return r == null ? 0 : r.version;
+    }
+
+    /**
+     * Records a replica that finished after the upload was acknowledged, but
+     * only while the file still holds the version that upload placed.
+     * @return false if the file was deleted or replaced in the meantime
+     */
+    public boolean addReplica(String filename, FileContainer container, long version) {
+        synchronized (stripeFor(filename)) {
+            Replicas r = mapping.get(filename);
+            if (r == null || r.version != version) return false;
+            doAdd(filename, container, true);
+            return true;
+        }
     }
 
     // FIX for the "incompatible types" errors (Lines 119 and 139)
-    // Returns a Set instead of a List
+    // Returns a Set instead of a List. The set is a snapshot and never changes.
     public Set<FileContainer> locations(String filename) {
-        return mapping.getOrDefault(filename, Collections.emptySet());
+        Replicas r = mapping.get(filename);
+        return r == null ? Collections.emptySet() : r;
     }
 
     public boolean exists(String filename) {
@@ -35,20 +116,198 @@ public class FileCatalog {
         this.replicationFactor = rf;
     }
 
-    // Helper for removing containers
+    public int getWriteQuorum() {
+        return writeQuorum;
+    }
+
+    // Number of replica writes an upload waits for; 0 means all of them
+    public void setWriteQuorum(int w) {
+        this.writeQuorum = Math.max(0, w);
+    }
+
+    // Helper for removing containers: a live, read-only view of the reverse index
     public Set<String> filesOn(FileContainer c) {
-        Set<String> files = new HashSet<>();
-        mapping.forEach((file, containers) -> {
-            if (containers.contains(c)) files.add(file);
-        });
-        return files;
+        Set<String> files = filesByContainer.get(c);
+        return files == null ? Collections.emptySet() : Collections.unmodifiableSet(files);
     }
 
     public void removeReplica(String filename, FileContainer container) {
-        Set<FileContainer> set = mapping.get(filename);
-        if (set != null) {
-            set.remove(container);
-            if (set.isEmpty()) mapping.remove(filename);
+        doRemove(filename, container, true);
+    }
+
+    /**
+     * Up to limit catalogued filenames starting with prefix, in order,
+     * beginning after the cursor (a filename from the previous page) or at
+     * the start of the prefix when the cursor is null.
+     */
+    public List<String> list(String prefix, String cursor, int limit) {
+        NavigableSet<String> from = (cursor != null && cursor.compareTo(prefix) >= 0)
+                ? sortedNames.tailSet(cursor, false)
+                : sortedNames.tailSet(prefix, true);
+        List<String> page = new ArrayList<>(Math.min(limit, 1024));
+        for (String name : from) {
+            if (page.size() >= limit || !name.startsWith(prefix)) break;
+            page.add(name);
+        }
+        return page;
+    }
+
+    /**
+     * Forgets every replica on a container, one stripe at a time in stripe
+     * order, so other files stay available while a large container is
+     * dropped. Files placed on it meanwhile are picked up by the next pass;
+     * the container's file set is dropped only once it is empty.
+     * @return how many replicas were removed
+     */
+    public int removeContainer(FileContainer c) {
+        int removed = 0;
+        while (true) {
+            Set<String> files = filesByContainer.get(c);
+            if (files == null) return removed;
+            TreeMap<Integer, List<String>> byStripe = new TreeMap<>();
+            for (String f : files) byStripe.computeIfAbsent(stripeIndex(f), k -> new ArrayList<>()).add(f);
+            if (byStripe.isEmpty()) {
+                filesByContainer.computeIfPresent(c, (k, s) -> s.isEmpty() ? null : s);
+                if (!filesByContainer.containsKey(c)) return removed;
+                continue;
+            }
+            for (Map.Entry<Integer, List<String>> e : byStripe.entrySet()) {
+                synchronized (stripes[e.getKey()]) {
+                    for (String f : e.getValue()) {
+                        if (doRemove(f, c, true)) removed++;
+                        else unindex(c, f); // already gone from the file's replicas
+                    }
+                }
+            }
+        }
+    }
+
+    /** Completes once every change made so far is durable; at once if memory-only. */
+    public CompletableFuture<Void> sync() {
+        return log == null ? CompletableFuture.completedFuture(null) : log.sync();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("files", mapping.size());
+        if (log != null) m.putAll(log.stats());
+        return m;
+    }
+
+    public void close() throws IOException {
+        if (log != null) log.close();
+    }
+
+    // --- Mutations: the indexes and the log change under the file's stripe ---
+
+    // A logged change is refused before memory changes if the log can no
+    // longer record it, so the catalog never runs ahead of a failed log
+    private long doPlace(String filename, List<FileContainer> targets, boolean logged, Consumer<FileContainer> displaced) {
+        if (logged && log != null) log.checkWritable();
+        synchronized (stripeFor(filename)) {
+            Replicas now = new Replicas(new LinkedHashSet<>(targets).toArray(new FileContainer[0]), nextVersion.incrementAndGet());
+            Replicas old = mapping.put(filename, now);
+            if (old != null) {
+                for (FileContainer c : old.containers) {
+                    if (now.contains(c)) continue;
+                    unindex(c, filename);
+                    if (displaced != null) displaced.accept(c);
+                }
+            } else if (logged) {
+                sortedNames.add(filename);
+            }
+            for (FileContainer c : now.containers) index(c, filename);
+            if (logged && log != null) log.place(filename, now);
+            return now.version;
+        }
+    }
+
+    private void doAdd(String filename, FileContainer container, boolean logged) {
+        if (logged && log != null) log.checkWritable();
+        synchronized (stripeFor(filename)) {
+            Replicas old = mapping.get(filename);
+            if (old != null && old.contains(container)) return;
+            mapping.put(filename, old == null
+                    ? new Replicas(new FileContainer[] { container }, nextVersion.incrementAndGet())
+                    : old.with(container));
+            if (old == null && logged) sortedNames.add(filename);
+            index(container, filename);
+            if (logged && log != null) log.add(filename, container);
+        }
+    }
+
+    private boolean doRemove(String filename, FileContainer container, boolean logged) {
+        if (logged && log != null) log.checkWritable();
+        synchronized (stripeFor(filename)) {
+            Replicas old = mapping.get(filename);
+            if (old == null || !old.contains(container)) return false;
+            Replicas now = old.without(container);
+            if (now.isEmpty()) {
+                mapping.remove(filename);
+                if (logged) sortedNames.remove(filename);
+            } else {
+                mapping.put(filename, now);
+            }
+            unindex(container, filename);
+            if (logged && log != null) log.remove(filename, container);
+            return true;
+        }
+    }
+
+    // Adds inside compute(), so removeContainer cannot drop the set between
+    // finding it and adding to it
+    private void index(FileContainer c, String filename) {
+        filesByContainer.compute(c, (k, files) -> {
+            if (files == null) files = ConcurrentHashMap.newKeySet();
+            files.add(filename);
+            return files;
+        });
+    }
+
+    private void unindex(FileContainer c, String filename) {
+        Set<String> files = filesByContainer.get(c);
+        if (files != null) files.remove(filename);
+    }
+
+    private Object stripeFor(String filename) {
+        return stripes[stripeIndex(filename)];
+    }
+
+    private int stripeIndex(String filename) {
+        return Math.floorMod(filename.hashCode(), stripes.length);
+    }
+
+    /** Immutable replica set: a small array, with the version of the content it holds. */
+    static final class Replicas extends AbstractSet<FileContainer> {
+        final FileContainer[] containers;
+        final long version;
+
+        Replicas(FileContainer[] containers, long version) {
+            this.containers = containers; this.version = version;
+        }
+
+        Replicas with(FileContainer c) {
+            FileContainer[] next = Arrays.copyOf(containers, containers.length + 1);
+            next[containers.length] = c;
+            return new Replicas(next, version);
+        }
+
+        Replicas without(FileContainer c) {
+            FileContainer[] next = new FileContainer[containers.length - 1];
+            int i = 0;
+            for (FileContainer x : containers) if (x != c) next[i++] = x;
+            return new Replicas(next, version);
+        }
+
+        @Override public boolean contains(Object o) {
+            for (FileContainer c : containers) if (c == o) return true;
+            return false;
+        }
+
+        @Override public int size() { return containers.length; }
+
+        @Override public Iterator<FileContainer> iterator() {
+            return Collections.unmodifiableList(Arrays.asList(containers)).iterator();
         }
     }
-}
\ No newline at end of file
+}
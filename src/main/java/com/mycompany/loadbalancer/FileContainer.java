@@ -1,20 +1,327 @@
-
 package com.mycompany.loadbalancer;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 public class FileContainer {
+    /** How operations on one container exclude each other. */
+    public enum LockMode {
+        /** One operation at a time under {@link #lock}. */
+        CONTAINER,
+        /** Per-file read/write locks: reads share, writes to the same file are exclusive. */
+        FILE;
+
+        static LockMode fromProperty() {
+            return "file".equalsIgnoreCase(System.getProperty("lb.lockMode")) ? FILE : CONTAINER;
+        }
+    }
+
+    /** Whether an operation only reads its file or also changes it. */
+    public enum Access { READ, WRITE }
+
+    private static final int LOCK_STRIPES = 256;
+
     public final String id;
     public final ReentrantLock lock = new ReentrantLock(true);
-    public final Map<String, byte[]> storage = new ConcurrentHashMap<>();
+    public final ContainerStorage storage;
     public final AtomicBoolean healthy = new AtomicBoolean(true);
     public final AtomicInteger activeOps = new AtomicInteger(0);
     public final AtomicInteger totalOps = new AtomicInteger(0);
+    public volatile int weight = 1; // relative share of keys for weighted placement
+    // Each unit of weight adds vnodes points to the hash ring, so it is capped
+    public static final int MAX_WEIGHT = 100;
+
+    // Exponentially weighted moving average of operation service time,
+    // stored as the raw bits of a double so it can be updated atomically
+    private static final double EWMA_ALPHA = 0.2;
+    private final AtomicLong serviceTimeEwma = new AtomicLong(Double.doubleToLongBits(0.0));
+
+    // Actor-style operation queue: callers enqueue work and get a future back
+    // instead of parking a thread on the lock. Higher priority runs first,
+    // equal priorities run in submission order.
+    private final PriorityBlockingQueue<Op<?>> ops = new PriorityBlockingQueue<>();
+    private final AtomicLong opSeq = new AtomicLong();
+    private final AtomicInteger drainers = new AtomicInteger(0);
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    // FILE mode: keyed operations hold the read side of 'scope' plus a striped
+    // per-file lock; whole-container operations hold the write side of 'scope'.
+    // Locks are only tried: an operation that finds one taken waits on that
+    // lock's list and its drainer moves on, and whoever unlocks puts the
+    // waiters back in the queue. So a busy file never holds up the others.
+    private final LockMode lockMode;
+    private final ReentrantReadWriteLock scope = new ReentrantReadWriteLock(true);
+    private final ReentrantReadWriteLock[] stripes;
+    private final Guard containerGuard, scopeRead, scopeWrite;
+    private final Guard[] stripeReads, stripeWrites;
+    private final AtomicInteger parked = new AtomicInteger(); // operations on a wait list
+
+    public FileContainer(String id) {
+        this(id, LockMode.fromProperty(), Integer.getInteger("lb.containerParallelism", 8));
+    }
+
+    public FileContainer(String id, LockMode lockMode, int parallelism) {
+        this.id = id;
+        this.storage = ContainerStorage.create(id);
+        this.lockMode = lockMode;
+        this.parallelism = lockMode == LockMode.FILE ? Math.max(1, parallelism) : 1;
+        this.stripes = new ReentrantReadWriteLock[lockMode == LockMode.FILE ? LOCK_STRIPES : 0];
+        this.stripeReads = new Guard[stripes.length];
+        this.stripeWrites = new Guard[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantReadWriteLock(true);
+            ArrayDeque<Op<?>> waiting = new ArrayDeque<>();
+            stripeReads[i] = new Guard(stripes[i].readLock(), waiting);
+            stripeWrites[i] = new Guard(stripes[i].writeLock(), waiting);
+        }
+        ArrayDeque<Op<?>> scopeWaiting = new ArrayDeque<>();
+        this.scopeRead = new Guard(scope.readLock(), scopeWaiting);
+        this.scopeWrite = new Guard(scope.writeLock(), scopeWaiting);
+        this.containerGuard = new Guard(lock, null);
+        this.executor = ThreadMode.fromProperty().newExecutor("container-" + id + "-", this.parallelism);
+    }
 
-    public FileContainer(String id) { this.id = id; }
     public boolean isHealthy() { return healthy.get(); }
+
+    /** Operations waiting to run on this container, excluding the ones running. */
+    public int queueDepth() { return ops.size() + parked.get(); }
+
+    public LockMode lockMode() { return lockMode; }
+
+    /** Operations this container runs at the same time. */
+    public int parallelism() { return parallelism; }
+
+    /** Smoothed time one operation takes on this container, in milliseconds. */
+    public double serviceTimeMs() {
+        return Double.longBitsToDouble(serviceTimeEwma.get());
+    }
+
+    /**
+     * Expected wait for a new operation: work running or queued here, scaled
+     * by how long an operation has recently taken. Lower is better.
+     */
+    public double loadScore() {
+        return (activeOps.get() + queueDepth() + 1) * Math.max(1.0, serviceTimeMs());
+    }
+
+    /**
+     * Queues an operation to run exclusively on this container.
+     * The returned future completes with the operation's result or failure.
+     */
+    public <T> CompletableFuture<T> submit(int priority, Callable<T> work) {
+        return submit(priority, null, Access.WRITE, work);
+    }
+
+    /**
+     * Queues an operation on one file. In FILE lock mode it only excludes
+     * conflicting operations on the same file; in CONTAINER mode it is
+     * exclusive like any other operation.
+     */
+    public <T> CompletableFuture<T> submit(int priority, String key, Access access, Callable<T> work) {
+        Op<T> op = new Op<>(priority, opSeq.getAndIncrement(), key, access, null, work);
+        ops.offer(op);
+        scheduleDrain();
+        return op.result;
+    }
+
+    /**
+     * Queues an operation that writes several files. keys is asked for them
+     * just before the operation runs, so they may depend on what has been
+     * queued by then. In FILE lock mode the operation holds only those
+     * files' stripes, taken in stripe order, rather than the whole container.
+     */
+    public <T> CompletableFuture<T> submitWrites(int priority, Supplier<? extends Collection<String>> keys, Callable<T> work) {
+        Op<T> op = new Op<>(priority, opSeq.getAndIncrement(), null, Access.WRITE, keys, work);
+        ops.offer(op);
+        scheduleDrain();
+        return op.result;
+    }
+
+    /**
+     * Stops serving operations; anything still queued fails. The storage is
+     * closed once the operations already running have finished.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        failQueued();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                System.err.println("Container " + id + " still busy after 30s; closing its storage anyway");
+            }
+            storage.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Closing storage of container " + id + " failed: " + e.getMessage());
+        }
+    }
+
+    private void scheduleDrain() {
+        while (!ops.isEmpty()) {
+            int d = drainers.get();
+            if (d >= parallelism) return;
+            if (!drainers.compareAndSet(d, d + 1)) continue;
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                drainers.decrementAndGet();
+                failQueued();
+            }
+            return;
+        }
+    }
+
+    private void drain() {
+        try {
+            Op<?> op;
+            while ((op = ops.poll()) != null) {
+                if (op.result.isDone()) continue; // cancelled while queued
+                run(op);
+            }
+        } finally {
+            drainers.decrementAndGet();
+            // An operation may have been queued after the last poll
+            scheduleDrain();
+        }
+    }
+
+    private <T> void run(Op<T> op) {
+        List<Guard> held = guardsFor(op);
+        if (!acquire(op, held)) return; // waits for whoever holds the lock it missed
+        activeOps.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            T value = op.work.call();
+            // Cancelled while running: nobody will close what it opened
+            if (!op.result.complete(value) && value instanceof AutoCloseable) ((AutoCloseable) value).close();
+        } catch (Throwable t) {
+            op.result.completeExceptionally(t);
+        } finally {
+            recordServiceTime((System.nanoTime() - start) / 1_000_000.0);
+            activeOps.decrementAndGet();
+            release(held);
+        }
+    }
+
+    // Takes every lock or none. On a miss the operation joins that lock's
+    // wait list, also when others already wait there, so none is overtaken
+    // indefinitely. A non-empty list always has a holder that will empty it.
+    private boolean acquire(Op<?> op, List<Guard> guards) {
+        for (int i = 0; i < guards.size(); i++) {
+            Guard g = guards.get(i);
+            if (g.waiting == null) {
+                g.lock.lock();
+                continue;
+            }
+            synchronized (g.waiting) {
+                if (g.waiting.isEmpty() && g.lock.tryLock()) continue;
+                g.waiting.add(op);
+                parked.incrementAndGet();
+            }
+            release(guards.subList(0, i));
+            return false;
+        }
+        return true;
+    }
+
+    private void release(List<Guard> guards) {
+        boolean woke = false;
+        for (int i = guards.size() - 1; i >= 0; i--) {
+            Guard g = guards.get(i);
+            g.lock.unlock();
+            if (g.waiting != null) woke |= requeue(g.waiting);
+        }
+        if (woke) scheduleDrain();
+    }
+
+    private boolean requeue(ArrayDeque<Op<?>> waiting) {
+        synchronized (waiting) {
+            if (waiting.isEmpty()) return false;
+            ops.addAll(waiting);
+            parked.addAndGet(-waiting.size());
+            waiting.clear();
+            return true;
+        }
+    }
+
+    private void recordServiceTime(double ms) {
+        serviceTimeEwma.updateAndGet(bits -> {
+            double prev = Double.longBitsToDouble(bits);
+            double next = prev == 0.0 ? ms : prev + EWMA_ALPHA * (ms - prev);
+            return Double.doubleToLongBits(next);
+        });
+    }
+
+    private List<Guard> guardsFor(Op<?> op) {
+        if (lockMode == LockMode.CONTAINER) return List.of(containerGuard);
+        Collection<String> keys = op.keys == null ? null : op.keys.get();
+        if (keys != null) {
+            List<Guard> guards = new ArrayList<>(keys.size() + 1);
+            // Ascending stripe order, so the same operations miss the same lock first
+            TreeSet<Integer> indexes = new TreeSet<>();
+            for (String k : keys) indexes.add(Math.floorMod(k.hashCode(), stripes.length));
+            guards.add(scopeRead);
+            for (int i : indexes) guards.add(stripeWrites[i]);
+            return guards;
+        }
+        if (op.key == null) return List.of(scopeWrite);
+        int i = Math.floorMod(op.key.hashCode(), stripes.length);
+        return List.of(scopeRead, op.access == Access.READ ? stripeReads[i] : stripeWrites[i]);
+    }
+
+    private void failQueued() {
+        if (scopeRead != null) requeue(scopeRead.waiting);
+        for (Guard g : stripeWrites) requeue(g.waiting);
+        Op<?> op;
+        while ((op = ops.poll()) != null) {
+            op.result.completeExceptionally(new IllegalStateException("Container " + id + " is shut down"));
+        }
+    }
+
+    // A lock and, in FILE mode, the list of operations waiting for it
+    private static final class Guard {
+        final Lock lock;
+        final ArrayDeque<Op<?>> waiting; // guarded by itself
+
+        Guard(Lock lock, ArrayDeque<Op<?>> waiting) {
+            this.lock = lock; this.waiting = waiting;
+        }
+    }
+
+    private static final class Op<T> implements Comparable<Op<?>> {
+        final int priority;
+        final long seq;
+        final String key;
+        final Access access;
+        final Supplier<? extends Collection<String>> keys; // files a multi-file write touches
+        final Callable<T> work;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Op(int priority, long seq, String key, Access access, Supplier<? extends Collection<String>> keys, Callable<T> work) {
+            this.priority = priority; this.seq = seq; this.key = key; this.access = access; this.keys = keys; this.work = work;
+        }
+
+        @Override public int compareTo(Op<?> o) {
+            int c = Integer.compare(o.priority, priority);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
 }
@@ -0,0 +1,139 @@
+package com.mycompany.loadbalancer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * One file on disk per stored key. Writes stream into a temporary file in
+ * fixed-size chunks and are renamed into place, so readers never see a
+ * partial value and the heap only ever holds one chunk.
+ */
+public class FileStorage implements ContainerStorage {
+    private final Path dir;
+    private final Map<String, Long> sizes = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final boolean sync = ContainerStorage.syncWrites();
+
+    public FileStorage(Path dir) {
+        this.dir = dir;
+        try {
+            Files.createDirectories(dir);
+            try (Stream<Path> existing = Files.list(dir)) {
+                existing.filter(p -> p.getFileName().toString().endsWith(".dat")).forEach(this::index);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open storage directory " + dir, e);
+        }
+    }
+
+    private void index(Path p) {
+        String name = p.getFileName().toString();
+        try {
+            long len = Files.size(p);
+            sizes.put(decode(name.substring(0, name.length() - 4)), len);
+            bytes.addAndGet(len);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("[Storage] Skipping " + p + ": " + e.getMessage());
+        }
+    }
+
+    @Override public void write(String key, InputStream in, long length) throws IOException {
+        Path tmp = Files.createTempFile(dir, "write-", ".tmp");
+        long written = 0;
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                OutputStream out = Channels.newOutputStream(ch);
+                byte[] buf = new byte[Payload.CHUNK_SIZE];
+                int r;
+                while (written < length && (r = in.read(buf, 0, (int) Math.min(buf.length, length - written))) != -1) {
+                    out.write(buf, 0, r);
+                    written += r;
+                }
+                if (sync) ch.force(true);
+            }
+            Files.move(tmp, pathFor(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (sync) syncDir();
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        Long old = sizes.put(key, written);
+        bytes.addAndGet(written - (old == null ? 0 : old));
+    }
+
+    // The channel is opened now, so a later rename or delete of the path
+    // does not affect what the caller streams.
+    @Override public StoredObject read(String key) throws IOException {
+        if (!sizes.containsKey(key)) return null;
+        FileChannel ch;
+        try {
+            ch = FileChannel.open(pathFor(key), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        long length = ch.size();
+        return new StoredObject() {
+            @Override public long length() { return length; }
+            @Override public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+                long end = position + count;
+                while (position < end) {
+                    long n = ch.transferTo(position, end - position, target);
+                    if (n <= 0) throw new IOException("Short transfer from " + key);
+                    position += n;
+                }
+            }
+            @Override public void close() throws IOException { ch.close(); }
+        };
+    }
+
+    @Override public boolean delete(String key) throws IOException {
+        Long old = sizes.remove(key);
+        if (old != null) bytes.addAndGet(-old);
+        boolean removed = Files.deleteIfExists(pathFor(key));
+        if (removed && sync) syncDir();
+        return removed || old != null;
+    }
+
+    // Makes a rename or unlink in the directory durable
+    private void syncDir() throws IOException {
+        try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+            d.force(true);
+        }
+    }
+
+    @Override public boolean contains(String key) { return sizes.containsKey(key); }
+    @Override public Set<String> keys() { return Collections.unmodifiableSet(sizes.keySet()); }
+    @Override public int size() { return sizes.size(); }
+    @Override public long bytesStored() { return bytes.get(); }
+
+    Path pathFor(String key) { return dir.resolve(encode(key) + ".dat"); }
+
+    // Keys contain ':' and arbitrary user text, so file names use hex
+    private static String encode(String key) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    private static String decode(String hex) {
+        if (hex.length() % 2 != 0) throw new IllegalArgumentException("Not a stored key: " + hex);
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) out[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        return new String(out, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,38 @@
+package com.mycompany.loadbalancer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Keeps every file as a byte array on the heap, as containers always have. */
+public class HeapStorage implements ContainerStorage {
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+
+    @Override public void write(String key, InputStream in, long length) throws IOException {
+        if (length > Integer.MAX_VALUE - 8) throw new IOException("File too large for heap storage: " + length);
+        byte[] data = in.readNBytes((int) length);
+        byte[] old = files.put(key, data);
+        bytes.addAndGet(data.length - (old == null ? 0 : old.length));
+    }
+
+    @Override public StoredObject read(String key) {
+        byte[] data = files.get(key);
+        return data == null ? null : StoredObject.of(data);
+    }
+
+    @Override public boolean delete(String key) {
+        byte[] old = files.remove(key);
+        if (old != null) bytes.addAndGet(-old.length);
+        return old != null;
+    }
+
+    @Override public boolean contains(String key) { return files.containsKey(key); }
+    @Override public Set<String> keys() { return Collections.unmodifiableSet(files.keySet()); }
+    @Override public int size() { return files.size(); }
+    @Override public long bytesStored() { return bytes.get(); }
+}
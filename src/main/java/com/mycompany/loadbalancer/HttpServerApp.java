@@ -3,16 +3,26 @@ package com.mycompany.loadbalancer;
 import com.sun.net.httpserver.*;
 import java.io.*;
 import java.net.*;
+import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.Executors;
-import static java.lang.Integer.parseInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class HttpServerApp {
+    private static final int RETRY_AFTER_SECONDS = 1;
+    private static final long DOWNLOAD_TIMEOUT_MS = Long.getLong("lb.downloadTimeoutMs", 60_000);
+    private static final int MAX_LIST_LIMIT = 1000;
+
     private final UserService users;
     private final Dispatcher dispatcher;
     private final FileCatalog catalog;
     private final List<FileContainer> containers;
+    // Per-user DRR weights; kept here so they survive scheduler switches
+    private final Map<String, Integer> userWeights = new ConcurrentHashMap<>();
 
     public HttpServerApp(UserService users, Dispatcher dispatcher, FileCatalog catalog, List<FileContainer> containers) {
         this.users = users; 
@@ -29,7 +39,11 @@ public class HttpServerApp {
         server.createContext("/upload", this::upload);
         server.createContext("/download", this::download);
         server.createContext("/delete", this::delete);
+        server.createContext("/deletePrefix", this::deletePrefix);
+        server.createContext("/list", this::list);
         server.createContext("/share", this::share);
+        server.createContext("/share/revoke", this::shareRevoke);
+        server.createContext("/share/list", this::shareList);
         server.createContext("/user/create", this::userCreate);
         server.createContext("/user/update", this::userUpdate);
         server.createContext("/admin/user/delete", this::adminUserDelete);
@@ -38,12 +52,17 @@ public class HttpServerApp {
         server.createContext("/admin/removeContainer", this::removeContainer);
         server.createContext("/admin/setHealth", this::setHealth);
         server.createContext("/admin/setReplication", this::setReplication);
+        server.createContext("/admin/setWriteQuorum", this::setWriteQuorum);
         server.createContext("/admin/setScheduler", this::setScheduler);
+        server.createContext("/admin/setPicker", this::setPicker);
+        server.createContext("/admin/setWeight", this::setWeight);
         server.createContext("/metrics", this::metrics);
         server.createContext("/", ex -> respondText(ex, 200, "LB running"));
 
-        // Optimized Thread Pool for handling multiple API requests
-        server.setExecutor(Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors())));
+        // Request handlers block on auth and I/O, so in virtual mode each
+        // exchange gets its own virtual thread instead of a core-sized pool
+        server.setExecutor(ThreadMode.fromProperty()
+                .newExecutor("http-", Math.max(4, Runtime.getRuntime().availableProcessors())));
         
         server.start();
         System.out.println("[HTTP] API listening on http://localhost:" + port);
@@ -57,7 +76,6 @@ public class HttpServerApp {
         if (u == null) { respondText(ex, 401, "Unauthorized"); return; }
         
         String filename = query(ex, "filename");
-        int sizeKB = parseInt(query(ex, "sizeKB"), 64);
         int priority = parseInt(query(ex, "priority"), 5);
         
         if (filename == null) { respondText(ex, 400, "filename required"); return; }
@@ -65,9 +83,25 @@ public class HttpServerApp {
             if (!users.isOwner(u.name, filename)) { respondText(ex, 403, "Write denied"); return; }
         }
         
-        byte[] body = readAll(ex.getRequestBody());
+        // Admission runs before the body is read, sized from Content-Length,
+        // so a rejected upload costs no disk write. An admitted body is then
+        // spooled to a temp file (see SpooledPayload): the job runs after the
+        // 202 and writes every replica from it, so it cannot stream from the
+        // request. Without a Content-Length the body is spooled first.
+        long declared = parseLong(header(ex, "Content-Length"), -1);
+        SpooledPayload body = SpooledPayload.pending(Math.max(0, declared));
+        if (declared < 0) body.fill(ex.getRequestBody());
+        int sizeKB = parseInt(query(ex, "sizeKB"), (int) Math.min(Integer.MAX_VALUE, (body.length() + 1023) / 1024));
         Job job = new Job(JobType.UPLOAD, u.name, filename, body, sizeKB, priority);
-        dispatcher.submit(job);
+        job.setDeadlineMs(parseInt(header(ex, "X-Deadline-Ms"), 0));
+        if (!reserve(ex, job)) { body.release(); return; }
+        try {
+            if (declared >= 0) body.fill(ex.getRequestBody());
+        } catch (IOException e) {
+            dispatcher.cancel(job);
+            throw e;
+        }
+        dispatcher.enqueue(job);
         respondText(ex, 202, "Upload queued: " + job.id);
     }
 
@@ -83,9 +117,73 @@ public class HttpServerApp {
         if (!users.canRead(u.name, filename)) { respondText(ex, 403, "Read denied"); return; }
         if (!catalog.exists(filename)) { respondText(ex, 404, "Not found"); return; }
         
-        Job job = new Job(JobType.DOWNLOAD, u.name, filename, null, 1, priority);
-        dispatcher.submit(job);
-        respondText(ex, 202, "Download queued: " + job.id);
+        Job job = new Job(JobType.DOWNLOAD, u.name, filename, (Payload) null, 1, priority);
+        job.setDeadlineMs(parseInt(header(ex, "X-Deadline-Ms"), 0));
+        boolean wait = "true".equalsIgnoreCase(query(ex, "wait"));
+        job.returnContent = wait;
+        if (!submit(ex, job)) return;
+        if (!wait) { respondText(ex, 202, "Download queued: " + job.id); return; }
+
+        // Synchronous mode: wait for the scheduled job, then stream its content
+        StoredObject content;
+        try {
+            content = job.done.get(DOWNLOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Close whatever the job opens if it finishes after we gave up
+            job.done.thenAccept(o -> { try { if (o != null) o.close(); } catch (IOException ignored) {} });
+            respondText(ex, 504, "Download timed out: " + job.id);
+            return;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            respondText(ex, cause instanceof FileNotFoundException ? 404 : 500, "Download failed: " + cause.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respondText(ex, 503, "Interrupted");
+            return;
+        }
+        try (StoredObject obj = content) {
+            sendContent(ex, obj);
+        }
+    }
+
+    // Sends the whole object or the single byte range the client asked for
+    private static void sendContent(HttpExchange ex, StoredObject obj) throws IOException {
+        long length = obj.length();
+        long start = 0, end = length - 1;
+        int status = 200;
+        String range = header(ex, "Range");
+        Headers h = ex.getResponseHeaders();
+        h.set("Accept-Ranges", "bytes");
+        h.set("Content-Type", "application/octet-stream");
+        if (range != null && range.startsWith("bytes=") && !range.contains(",")) {
+            String spec = range.substring(6).trim();
+            int dash = spec.indexOf('-');
+            try {
+                if (dash == 0) {
+                    long suffix = Long.parseLong(spec.substring(1));
+                    start = Math.max(0, length - suffix);
+                } else if (dash > 0) {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    if (dash < spec.length() - 1) end = Math.min(end, Long.parseLong(spec.substring(dash + 1)));
+                }
+                if (dash < 0 || start >= length || start > end) {
+                    h.set("Content-Range", "bytes */" + length);
+                    ex.sendResponseHeaders(416, -1);
+                    ex.close();
+                    return;
+                }
+                status = 206;
+                h.set("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            } catch (NumberFormatException e) {
+                start = 0; end = length - 1; // malformed range: send everything
+            }
+        }
+        long count = end - start + 1;
+        ex.sendResponseHeaders(status, count > 0 ? count : -1);
+        try (OutputStream os = ex.getResponseBody()) {
+            if (count > 0) obj.transferTo(start, count, Channels.newChannel(os));
+        }
     }
 
     private void delete(HttpExchange ex) throws IOException {
@@ -100,11 +198,46 @@ public class HttpServerApp {
         if (!users.canWrite(u.name, filename)) { respondText(ex, 403, "Write denied"); return; }
         if (!catalog.exists(filename)) { respondText(ex, 404, "Not found"); return; }
         
-        Job job = new Job(JobType.DELETE, u.name, filename, null, 1, priority);
-        dispatcher.submit(job);
+        Job job = new Job(JobType.DELETE, u.name, filename, (Payload) null, 1, priority);
+        job.setDeadlineMs(parseInt(header(ex, "X-Deadline-Ms"), 0));
+        if (!submit(ex, job)) return;
+        respondText(ex, 202, "Delete queued: " + job.id);
+    }
+
+    // Removes every file under one of the caller's own prefixes as a single job
+    private void deletePrefix(HttpExchange ex) throws IOException {
+        if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) { respondText(ex, 405, "Use POST"); return; }
+        User u = users.auth(header(ex, "X-User"), header(ex, "X-Pass"));
+        if (u == null) { respondText(ex, 401, "Unauthorized"); return; }
+
+        String prefix = query(ex, "prefix");
+        int priority = parseInt(query(ex, "priority"), 5);
+        if (prefix == null) { respondText(ex, 400, "prefix required"); return; }
+        if (!prefix.startsWith(u.name + ":")) { respondText(ex, 403, "Write denied"); return; }
+
+        Job job = new Job(JobType.DELETE_PREFIX, u.name, prefix, (Payload) null, 1, priority);
+        job.setDeadlineMs(parseInt(header(ex, "X-Deadline-Ms"), 0));
+        if (!submit(ex, job)) return;
         respondText(ex, 202, "Delete queued: " + job.id);
     }
 
+    // Pages through the caller's files in name order; pass nextCursor back as cursor
+    private void list(HttpExchange ex) throws IOException {
+        User u = users.auth(header(ex, "X-User"), header(ex, "X-Pass"));
+        if (u == null) { respondText(ex, 401, "Unauthorized"); return; }
+
+        String prefix = query(ex, "prefix");
+        if (prefix == null) prefix = u.name + ":";
+        if (!prefix.startsWith(u.name + ":") && u.role != User.Role.ADMIN) { respondText(ex, 403, "Read denied"); return; }
+        int limit = Math.max(1, Math.min(MAX_LIST_LIMIT, parseInt(query(ex, "limit"), 100)));
+
+        List<String> page = catalog.list(prefix, query(ex, "cursor"), limit);
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("files", page);
+        m.put("nextCursor", page.size() == limit ? page.get(page.size() - 1) : null);
+        respondJson(ex, 200, m);
+    }
+
     private void share(HttpExchange ex) throws IOException {
         if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) { respondText(ex, 405, "Use POST"); return; }
         User u = users.auth(header(ex, "X-User"), header(ex, "X-Pass"));
@@ -121,6 +254,38 @@ public class HttpServerApp {
         respondText(ex, ok ? 200 : 403, ok ? "Shared" : "Share failed");
     }
 
+    private void shareRevoke(HttpExchange ex) throws IOException {
+        if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) { respondText(ex, 405, "Use POST"); return; }
+        User u = users.auth(header(ex, "X-User"), header(ex, "X-Pass"));
+        if (u == null) { respondText(ex, 401, "Unauthorized"); return; }
+
+        String filename = query(ex, "filename");
+        String to = query(ex, "to");
+        if (filename == null || to == null) { respondText(ex, 400, "filename,to required"); return; }
+
+        if (!users.isOwner(u.name, filename)) { respondText(ex, 403, "Revoke denied"); return; }
+        boolean ok = users.revoke(u.name, to, filename);
+        respondText(ex, ok ? 200 : 404, ok ? "Revoked" : "Not shared");
+    }
+
+    private void shareList(HttpExchange ex) throws IOException {
+        User u = users.auth(header(ex, "X-User"), header(ex, "X-Pass"));
+        if (u == null) { respondText(ex, 401, "Unauthorized"); return; }
+
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (UserService.ShareEntry s : users.sharesFor(u.name)) {
+            Map<String, Object> e = new LinkedHashMap<>();
+            e.put("owner", s.owner);
+            e.put("to", s.target);
+            e.put("filename", s.filename);
+            e.put("perm", s.perm.name());
+            list.add(e);
+        }
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("shares", list);
+        respondJson(ex, 200, m);
+    }
+
     // --- User Management ---
 
     private void userCreate(HttpExchange ex) throws IOException {
@@ -165,7 +330,14 @@ public class HttpServerApp {
         if (u == null || u.role != User.Role.ADMIN) { respondText(ex, 401, "Admin required"); return; }
         String id = query(ex, "id"); 
         if (id == null) { respondText(ex, 400, "id required"); return; }
-        containers.add(new FileContainer(id));
+        if (containers.stream().anyMatch(x -> x.id.equals(id))) { respondText(ex, 409, "Container exists: " + id); return; }
+        int weight = parseInt(query(ex, "weight"), 1);
+        if (weight < 1 || weight > FileContainer.MAX_WEIGHT) {
+            respondText(ex, 400, "weight must be 1.." + FileContainer.MAX_WEIGHT); return;
+        }
+        FileContainer c = new FileContainer(id);
+        c.weight = weight;
+        containers.add(c);
         respondText(ex, 201, "Container added: " + id);
     }
     
@@ -179,13 +351,14 @@ public class HttpServerApp {
         FileContainer c = containers.stream().filter(x -> x.id.equals(id)).findFirst().orElse(null);
         if (c == null) { respondText(ex, 404, "Not found"); return; }
         
+        // No new work is placed on it once it is unhealthy and out of the
+        // catalog; draining it can take up to 30 s, so that happens on its
+        // own thread rather than this request's
+        c.healthy.set(false);
         containers.remove(c);
-        synchronized (catalog) {
-            for (String f : catalog.filesOn(c)) {
-                catalog.removeReplica(f, c);
-            }
-        }
-        respondText(ex, 200, "Container removed: " + id);
+        int dropped = catalog.removeContainer(c);
+        CompletableFuture.runAsync(c::shutdown, r -> new Thread(r, "container-" + id + "-shutdown").start());
+        respondText(ex, 200, "Container removed: " + id + " (" + dropped + " replicas dropped)");
     }
 
     private void setHealth(HttpExchange ex) throws IOException {
@@ -206,6 +379,14 @@ public class HttpServerApp {
         respondText(ex, 200, "Replication=" + rf);
     }
 
+    private void setWriteQuorum(HttpExchange ex) throws IOException {
+        User u = users.auth(header(ex, "X-User"), header(ex, "X-Pass")); 
+        if (u == null || u.role != User.Role.ADMIN) { respondText(ex, 401, "Admin required"); return; }
+        int w = parseInt(query(ex, "w"), 0);
+        catalog.setWriteQuorum(w);
+        respondText(ex, 200, "WriteQuorum=" + (w <= 0 ? "all" : String.valueOf(w)));
+    }
+
     private void setScheduler(HttpExchange ex) throws IOException {
         User u = users.auth(header(ex, "X-User"), header(ex, "X-Pass")); 
         if (u == null || u.role != User.Role.ADMIN) { respondText(ex, 401, "Admin required"); return; }
@@ -214,20 +395,55 @@ public class HttpServerApp {
         switch (name.toLowerCase()) {
             case "fcfs": alg = new FCFS(); break;
             case "sjn": alg = new ShortestJobNext(); break;
+            case "srt": alg = new ShortestRemainingTime(); break;
             case "priority": alg = new PriorityScheduling(); break;
             case "rr": alg = new RoundRobinJobs(); break;
             case "mlq": alg = new MultiLevelQueues(); break;
+            case "mlfq": alg = new MultiLevelFeedbackQueue(); break;
+            case "drr": alg = new DeficitRoundRobin(userWeights); break;
+            case "edf": alg = new EarliestDeadlineFirst(dispatcher::serviceCapacity); break;
             default: respondText(ex, 400, "Unknown scheduler"); return;
         }
         dispatcher.setScheduler(alg);
         respondText(ex, 200, "Scheduler=" + alg.name());
     }
 
+    private void setPicker(HttpExchange ex) throws IOException {
+        User u = users.auth(header(ex, "X-User"), header(ex, "X-Pass")); 
+        if (u == null || u.role != User.Role.ADMIN) { respondText(ex, 401, "Admin required"); return; }
+        String name = query(ex, "name");
+        if (name == null) { respondText(ex, 400, "name required"); return; }
+        ContainerPicker p;
+        switch (name.toLowerCase()) {
+            case "rr": p = new RoundRobinPicker(); break;
+            case "lc": p = new LeastConnectionsPicker(); break;
+            case "p2c": p = new PowerOfTwoChoicesPicker(); break;
+            case "hash": p = new ConsistentHashPicker(); break;
+            default: respondText(ex, 400, "Unknown picker"); return;
+        }
+        dispatcher.setPicker(p);
+        respondText(ex, 200, "Picker=" + p.name());
+    }
+
+    // Share of the dispatcher a user gets under the drr scheduler; weight 1 (the default) removes it
+    private void setWeight(HttpExchange ex) throws IOException {
+        User u = users.auth(header(ex, "X-User"), header(ex, "X-Pass")); 
+        if (u == null || u.role != User.Role.ADMIN) { respondText(ex, 401, "Admin required"); return; }
+        String user = query(ex, "user");
+        int w = parseInt(query(ex, "weight"), 1);
+        if (user == null || w < 1) { respondText(ex, 400, "user and weight >= 1 required"); return; }
+        if (w == 1) userWeights.remove(user); else userWeights.put(user, w);
+        respondText(ex, 200, "Weight " + user + "=" + w);
+    }
+
     private void metrics(HttpExchange ex) throws IOException {
         Map<String, Object> m = new LinkedHashMap<>();
         m.put("dispatcher", dispatcher.metrics());
         m.put("containers", containersInfo());
         m.put("replication", catalog.getReplicationFactor());
+        m.put("writeQuorum", catalog.getWriteQuorum());
+        m.put("catalog", catalog.stats());
+        m.put("shares", users.shareCount());
         respondJson(ex, 200, m);
     }
 
@@ -251,14 +467,39 @@ public class HttpServerApp {
         return null;
     }
 
+    // Query parameter as an int, or def when missing or malformed
+    private static int parseInt(String s, int def) {
+        if (s == null) return def;
+        try { return Integer.parseInt(s.trim()); } catch (NumberFormatException e) { return def; }
+    }
+
+    private static long parseLong(String s, long def) {
+        if (s == null) return def;
+        try { return Long.parseLong(s.trim()); } catch (NumberFormatException e) { return def; }
+    }
+
     private static String decode(String s) { try { return java.net.URLDecoder.decode(s, "UTF-8"); } catch (Exception e) { return s; } }
 
-    private static byte[] readAll(InputStream is) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(); 
-        byte[] buf = new byte[8192]; 
-        int r;
-        while ((r = is.read(buf)) != -1) baos.write(buf, 0, r);
-        return baos.toByteArray();
+    // Queues the job, or answers the request with why it was turned away
+    private boolean submit(HttpExchange ex, Job job) throws IOException {
+        return accepted(ex, dispatcher.admit(job));
+    }
+
+    // Like submit(), but leaves the accepted job for dispatcher.enqueue()
+    private boolean reserve(HttpExchange ex, Job job) throws IOException {
+        return accepted(ex, dispatcher.reserve(job));
+    }
+
+    private static boolean accepted(HttpExchange ex, Dispatcher.Admission a) throws IOException {
+        if (a == Dispatcher.Admission.QUEUE_FULL) respondBusy(ex);
+        else if (a == Dispatcher.Admission.DEADLINE_UNMET) respondText(ex, 503, "Deadline cannot be met, job not queued");
+        return a == Dispatcher.Admission.ACCEPTED;
+    }
+
+    // Admission queue full: tell the client to back off and retry.
+    private static void respondBusy(HttpExchange ex) throws IOException {
+        ex.getResponseHeaders().set("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+        respondText(ex, 429, "Too many queued jobs, retry later");
     }
 
     private static void respondText(HttpExchange ex, int status, String body) throws IOException {
@@ -305,8 +546,11 @@ public class HttpServerApp {
     private List<String> containersInfo() {
         List<String> info = new ArrayList<>();
         for (FileContainer c : containers) {
-            info.add(String.format("%s(healthy=%s,active=%d,total=%d,files=%d)",
-                    c.id, c.healthy.get(), c.activeOps.get(), c.totalOps.get(), c.storage.size()));
+            StringBuilder extra = new StringBuilder();
+            c.storage.stats().forEach((k, v) -> extra.append(',').append(k).append('=').append(v));
+            info.add(String.format("%s(healthy=%s,active=%d,queued=%d,serviceMs=%.1f,total=%d,files=%d,bytes=%d%s)",
+                    c.id, c.healthy.get(), c.activeOps.get(), c.queueDepth(), c.serviceTimeMs(),
+                    c.totalOps.get(), c.storage.size(), c.storage.bytesStored(), extra));
         }
         return info;
     }
@@ -2,25 +2,57 @@
 package com.mycompany.loadbalancer;
 
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public class Job {
     public final String id = UUID.randomUUID().toString();
     public final JobType type;
     public final String user;
     public final String filename;
-    public final byte[] payload;    // for uploads
+    public final Payload payload;   // for uploads; a handle, not the bytes
     public final int sizeKB;        // for SJN
     public final int priority;      // for Priority / MLQ
     public final long arrivedAt = System.currentTimeMillis();
     public volatile long estimatedMs; // used for SJN/SRTF
+    public volatile long remainingMs; // simulated work left; counts down at each SRT chunk
+    public volatile int level;              // MLFQ level, 0 = highest
+    public volatile long levelWorkStartMs;  // MLFQ: work already done when the job reached its level
+    public volatile long deadlineAt;        // epoch ms it should finish by; 0 = no deadline
+    public volatile boolean bestEffort;     // deadline kept for reporting, but no longer scheduled for
+
+    // Downloads that set returnContent get the stored object here and must
+    // close it; every other job completes with null.
+    public volatile boolean returnContent;
+    public final CompletableFuture<StoredObject> done = new CompletableFuture<>();
 
     public Job(JobType type, String user, String filename, byte[] payload,
                int sizeKB, int priority) {
+        this(type, user, filename, payload != null ? Payload.of(payload) : null, sizeKB, priority);
+    }
+
+    public Job(JobType type, String user, String filename, Payload payload,
+               int sizeKB, int priority) {
         this.type = type; this.user = user; this.filename = filename;
         this.payload = payload; this.sizeKB = Math.max(1, sizeKB);
         this.priority = priority;
         long baseDelay = 1000 + (int) (Math.random() * 4001);
         long sizeDelay = Math.round(this.sizeKB * 0.5);
         this.estimatedMs = baseDelay + sizeDelay;
+        this.remainingMs = simulatedMs();
+    }
+
+    /** Sets the deadline ms after arrival; 0 or less clears it. */
+    public void setDeadlineMs(long ms) {
+        this.deadlineAt = ms > 0 ? arrivedAt + ms : 0;
+    }
+
+    /** Artificial service time of one container operation: 10ms per KB, min 100ms. */
+    public long simulatedMs() {
+        return simulatedMs(sizeKB);
+    }
+
+    /** The same cost model for an operation moving sizeKB in total. */
+    public static long simulatedMs(long sizeKB) {
+        return Math.max(100, sizeKB * 10L);
     }
 }
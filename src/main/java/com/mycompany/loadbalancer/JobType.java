@@ -7,4 +7,4 @@ import com.mycompany.loadbalancer.JobType.*;
  *
  * @author ntu-user
  */
-public enum JobType { UPLOAD, DOWNLOAD, DELETE }
+public enum JobType { UPLOAD, DOWNLOAD, DELETE, DELETE_PREFIX }
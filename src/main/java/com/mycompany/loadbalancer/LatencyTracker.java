@@ -0,0 +1,38 @@
+package com.mycompany.loadbalancer;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples in a fixed ring buffer and answers
+ * percentile queries over them. Memory stays constant however many samples
+ * are recorded.
+ */
+public class LatencyTracker {
+    private final double[] samples;
+    private int next = 0;
+    private int count = 0;
+
+    public LatencyTracker() { this(1024); }
+
+    public LatencyTracker(int window) { this.samples = new double[Math.max(1, window)]; }
+
+    public synchronized void record(double ms) {
+        samples[next] = ms;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) count++;
+    }
+
+    public synchronized int count() { return count; }
+
+    /** The p-th percentile (0-100) of the window, or 0 if nothing was recorded. */
+    public double percentile(double p) {
+        double[] copy;
+        synchronized (this) {
+            if (count == 0) return 0;
+            copy = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(copy);
+        int i = (int) Math.ceil(p / 100.0 * copy.length) - 1;
+        return copy[Math.max(0, Math.min(copy.length - 1, i))];
+    }
+}
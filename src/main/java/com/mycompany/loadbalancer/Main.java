@@ -2,18 +2,20 @@ package com.mycompany.loadbalancer;
 
 import java.util.*;
 import java.io.IOException;
+import java.nio.file.Paths;
 
 public class Main {
     public static void main(String[] args) {
         // 1. Initialize core services
         UserService users = new UserService();
-        FileCatalog catalog = new FileCatalog();
         List<FileContainer> containers = Collections.synchronizedList(new ArrayList<>());
+        FileCatalog catalog = openCatalog(containers);
         Dispatcher dispatcher = new Dispatcher(catalog, containers);
 
         // 2. Setup Shutdown Hook (Release ports when app stops)
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("\n[System] Shutting down services...");
+            try { catalog.close(); } catch (IOException e) { System.err.println("Catalog close failed: " + e.getMessage()); }
         }));
 
         // 3. Start MQTT Gateway (Fails gracefully if broker is offline)
@@ -50,4 +52,30 @@ new MqttGateway("tcp://localhost:1883", uniqueId, dispatcher, users, false);
             System.err.println("Could not start HTTP server on any port in range 8080-8090.");
         }
     }
+
+    // With -Dlb.catalogDir the catalog survives restarts, and containers it
+    // remembers are brought back under the same id (their storage reopens
+    // from -Dlb.dataDir when it is on disk).
+    private static FileCatalog openCatalog(List<FileContainer> containers) {
+        String dir = System.getProperty("lb.catalogDir");
+        if (dir == null) return new FileCatalog();
+        // A catalog that outlives a restart must point at data that does too
+        String storage = System.getProperty("lb.storage", "heap").toLowerCase();
+        if (!storage.equals("disk") && !storage.equals("log")) {
+            System.err.println("lb.catalogDir needs -Dlb.storage=disk or log; " + storage + " storage is lost on restart");
+            System.exit(1);
+        }
+        try {
+            return new FileCatalog(Paths.get(dir), id -> {
+                FileContainer c = new FileContainer(id);
+                containers.add(c);
+                System.out.println("[Catalog] Restored container " + id);
+                return c;
+            });
+        } catch (IOException e) {
+            System.err.println("Could not open catalog in " + dir + ": " + e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
 }
\ No newline at end of file
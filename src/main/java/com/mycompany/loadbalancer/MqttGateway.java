@@ -90,14 +90,23 @@ public class MqttGateway implements JobEventListener {
             }
 
             JobType type = JobType.valueOf(typeStr.toUpperCase());
+            if (type == JobType.DELETE_PREFIX && (filename == null || !filename.startsWith(u.name + ":"))) {
+                publish(GUI_ACKS, Json.stringify(Map.of("status", "DENIED", "filename", String.valueOf(filename))));
+                return;
+            }
             byte[] data = (dataB64 != null) ? Base64.getDecoder().decode(dataB64) : null;
             Job job = new Job(type, u.name, filename, data, sizeKB, priority);
+            job.setDeadlineMs(Json.intOr(json.get("deadlineMs"), 0));
 
             if (forwardToExternalAggregator) {
                 publish(AGGREGATOR_COMMANDS, payload);
                 publish(GUI_ACKS, Json.stringify(Map.of("jobId", job.id, "status", "FORWARDED")));
             } else {
-                dispatcher.submit(job);
+                Dispatcher.Admission a = dispatcher.admit(job);
+                if (a != Dispatcher.Admission.ACCEPTED) {
+                    String status = a == Dispatcher.Admission.DEADLINE_UNMET ? "DEADLINE_UNMET" : "REJECTED";
+                    publish(GUI_ACKS, Json.stringify(Map.of("jobId", job.id, "status", status, "filename", String.valueOf(filename))));
+                }
             }
         } catch (Exception e) {
             System.err.println("[MQTT] Error: " + e.getMessage());
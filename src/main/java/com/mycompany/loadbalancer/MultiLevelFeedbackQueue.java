@@ -0,0 +1,152 @@
+package com.mycompany.loadbalancer;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-level feedback queue. Jobs enter a level by priority (as in
+ * MultiLevelQueues) and the highest non-empty level is served first.
+ * Levels are polled without blocking.
+ *
+ * Demotion: work runs in slices of the top level's quantum, and each level
+ * below gets twice the quantum of the one above. A job that uses up its
+ * level's quantum drops a level, so its remaining slices rank below
+ * fresher work on the container queues.
+ *
+ * Aging: a job that has waited longer than -Dlb.mlfq.agingMs at its level
+ * moves up one, so low levels cannot starve under sustained load. Each level
+ * is ordered by arrival, so a promoted job goes ahead of newer work there
+ * instead of joining the back of the line.
+ */
+public class MultiLevelFeedbackQueue implements SchedulingAlgorithm {
+    private final int levels;
+    private final long quantumMs;
+    private final long agingMs;
+    private final Queue<Entry>[] queues;
+    private final AtomicInteger[] depth;
+    private final LatencyTracker[] waits;
+    private final AtomicLong promotions = new AtomicLong();
+    private final AtomicLong demotions = new AtomicLong();
+    private final AtomicLong seq = new AtomicLong();
+    private volatile Runnable wakeup = () -> {};
+
+    public MultiLevelFeedbackQueue() {
+        this(Integer.getInteger("lb.mlfq.levels", 3),
+             Long.getLong("lb.mlfq.quantumMs", 100),
+             Long.getLong("lb.mlfq.agingMs", 2000));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MultiLevelFeedbackQueue(int levels, long quantumMs, long agingMs) {
+        this.levels = Math.max(1, levels);
+        this.quantumMs = Math.max(1, quantumMs);
+        this.agingMs = agingMs;
+        this.queues = new Queue[this.levels];
+        this.depth = new AtomicInteger[this.levels];
+        this.waits = new LatencyTracker[this.levels];
+        for (int i = 0; i < this.levels; i++) {
+            queues[i] = new PriorityBlockingQueue<>(11, Comparator.<Entry>comparingLong(e -> e.job.arrivedAt).thenComparingLong(e -> e.seq));
+            depth[i] = new AtomicInteger();
+            waits[i] = new LatencyTracker();
+        }
+    }
+
+    @Override public void onJobArrived(Job job) {
+        int level = job.priority >= 8 ? 0 : job.priority >= 4 ? 1 : 2;
+        job.level = Math.min(level, levels - 1);
+        enqueue(job, job.level);
+        wakeup.run();
+    }
+
+    @Override public Optional<Job> nextJob() {
+        age();
+        for (int i = 0; i < levels; i++) {
+            Entry e = queues[i].poll();
+            if (e == null) continue;
+            depth[i].decrementAndGet();
+            waits[i].record(System.currentTimeMillis() - e.job.arrivedAt);
+            return Optional.of(e.job);
+        }
+        return Optional.empty();
+    }
+
+    @Override public void onJobCompleted(Job job) {}
+    @Override public String name() { return "Multi-Level-Feedback-Queue"; }
+    @Override public void setWakeup(Runnable wakeup) { this.wakeup = wakeup; }
+
+    /** Higher levels outrank lower ones; priority orders jobs within a level. */
+    @Override public int containerRank(Job job) {
+        int level = levelFor(job);
+        if (level > job.level) {
+            demotions.addAndGet(level - job.level);
+            job.level = level;
+        }
+        return (levels - level) * 100 + Math.max(0, Math.min(99, job.priority));
+    }
+
+    @Override public long preemptionChunkMs() { return quantumMs; }
+
+    @Override public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        for (int i = 0; i < levels; i++) {
+            m.put("level" + i + "Depth", depth[i].get());
+            m.put("level" + i + "WaitP50Ms", waits[i].percentile(50));
+            m.put("level" + i + "WaitP95Ms", waits[i].percentile(95));
+            m.put("level" + i + "WaitP99Ms", waits[i].percentile(99));
+        }
+        m.put("promotions", promotions.get());
+        m.put("demotions", demotions.get());
+        return m;
+    }
+
+    // The level a running job has reached: each level's quantum used moves it down one
+    private int levelFor(Job job) {
+        long used = job.simulatedMs() - job.remainingMs;
+        int level = job.level;
+        long quantum = quantumMs << level, spent = job.levelWorkStartMs;
+        while (level < levels - 1 && used - spent >= quantum) {
+            spent += quantum;
+            level++;
+            quantum <<= 1;
+        }
+        job.levelWorkStartMs = spent;
+        return level;
+    }
+
+    // Only the dispatcher loop calls nextJob(), so moving heads between levels
+    // cannot race with another poll. The head arrived first; a promoted job at
+    // the head holds back aging on its level only until it is served.
+    private void age() {
+        if (agingMs <= 0) return;
+        long now = System.currentTimeMillis();
+        for (int i = 1; i < levels; i++) {
+            Entry head;
+            while ((head = queues[i].peek()) != null && now - head.enqueuedAt >= agingMs) {
+                queues[i].poll();
+                depth[i].decrementAndGet();
+                head.job.level = i - 1;
+                enqueue(head.job, i - 1);
+                promotions.incrementAndGet();
+            }
+        }
+    }
+
+    private void enqueue(Job job, int level) {
+        queues[level].offer(new Entry(job, System.currentTimeMillis(), seq.getAndIncrement()));
+        depth[level].incrementAndGet();
+    }
+
+    private static final class Entry {
+        final Job job;
+        final long enqueuedAt; // when it joined this level
+        final long seq;
+
+        Entry(Job job, long enqueuedAt, long seq) { this.job = job; this.enqueuedAt = enqueuedAt; this.seq = seq; }
+    }
+}
@@ -25,4 +25,9 @@ public class MultiLevelQueues implements SchedulingAlgorithm {
     }
     @Override public void onJobCompleted(Job job) {}
     @Override public String name() { return "Multi-Level-Queues"; }
+    @Override public void setWakeup(Runnable wakeup) {
+        high.setWakeup(wakeup);
+        normal.setWakeup(wakeup);
+        low.setWakeup(wakeup);
+    }
 }
@@ -0,0 +1,57 @@
+package com.mycompany.loadbalancer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Upload content carried by a Job. Implementations hand out a fresh stream
+ * per replica write, so a queued job holds a handle rather than the bytes.
+ */
+public interface Payload {
+    int CHUNK_SIZE = 64 * 1024;
+
+    long length();
+
+    /** A new stream over the whole content; callers close it. */
+    InputStream open() throws IOException;
+
+    /** Frees any backing resources once no replica write needs them. */
+    default void release() {}
+
+    static Payload of(byte[] data) {
+        return new Payload() {
+            @Override public long length() { return data.length; }
+            @Override public InputStream open() { return new ByteArrayInputStream(data); }
+        };
+    }
+
+    /** Simulated content of the given size, generated on the fly. */
+    static Payload filler(long length) {
+        return new Payload() {
+            @Override public long length() { return length; }
+            @Override public InputStream open() { return new FillerStream(length); }
+        };
+    }
+
+    final class FillerStream extends InputStream {
+        private long remaining;
+
+        FillerStream(long length) { this.remaining = length; }
+
+        @Override public int read() {
+            if (remaining <= 0) return -1;
+            remaining--;
+            return 'x';
+        }
+
+        @Override public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) return -1;
+            int n = (int) Math.min(len, remaining);
+            Arrays.fill(b, off, off + n, (byte) 'x');
+            remaining -= n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.mycompany.loadbalancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples two random containers and keeps the one with the lower load score.
+ * Two samples avoid the herding of always picking the global minimum while
+ * still steering work away from slow or backed-up containers.
+ */
+public class PowerOfTwoChoicesPicker implements ContainerPicker {
+    @Override public FileContainer choose(List<FileContainer> healthy) {
+        if (healthy == null || healthy.isEmpty()) return null;
+        int size = healthy.size();
+        if (size == 1) return healthy.get(0);
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int a = rnd.nextInt(size);
+        int b = rnd.nextInt(size - 1);
+        if (b >= a) b++;
+        FileContainer first = healthy.get(a), second = healthy.get(b);
+        return first.loadScore() <= second.loadScore() ? first : second;
+    }
+    @Override public String name() { return "Power-Of-Two-Choices"; }
+}
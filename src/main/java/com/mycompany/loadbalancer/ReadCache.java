@@ -0,0 +1,135 @@
+package com.mycompany.loadbalancer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Byte-bounded cache of hot file contents in front of the containers, keyed
+ * by filename and catalog version. It is a segmented LRU: new entries go to
+ * a probation segment and move to the protected segment on their next hit,
+ * so a burst of one-off downloads only churns probation and cannot flush
+ * the files that are read over and over.
+ */
+public class ReadCache {
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final long maxBytes;
+    private final long maxObjectBytes;
+    private final long protectedMax;
+    // Both in access order, eldest first
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationBytes, protectedBytes;
+    private long hits, misses, evictions;
+
+    /** Sized by -Dlb.cache.maxBytes (0 turns it off) and -Dlb.cache.maxObjectBytes. */
+    public ReadCache() {
+        this(Long.getLong("lb.cache.maxBytes", 64L << 20), Long.getLong("lb.cache.maxObjectBytes", 1L << 20));
+    }
+
+    public ReadCache(long maxBytes, long maxObjectBytes) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.maxObjectBytes = Math.min(maxObjectBytes, this.maxBytes);
+        this.protectedMax = (long) (this.maxBytes * PROTECTED_SHARE);
+    }
+
+    /** Whether a value of this size would be cached at all. */
+    public boolean admits(long length) {
+        return maxBytes > 0 && length <= maxObjectBytes;
+    }
+
+    /** The cached content of this version of the file, or null. */
+    public synchronized byte[] get(String filename, long version) {
+        if (maxBytes == 0) return null;
+        Entry e = protectedSegment.get(filename);
+        if (e == null) {
+            e = probation.remove(filename);
+            if (e != null) {
+                probationBytes -= e.data.length;
+                if (e.version == version) {
+                    // Second hit: promote, demoting protected entries that no longer fit
+                    protectedSegment.put(filename, e);
+                    protectedBytes += e.data.length;
+                    demoteOverflow();
+                }
+            }
+        } else if (e.version != version) {
+            protectedSegment.remove(filename);
+            protectedBytes -= e.data.length;
+        }
+        if (e == null || e.version != version) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.data;
+    }
+
+    public synchronized void put(String filename, long version, byte[] data) {
+        if (!admits(data.length)) return;
+        remove(filename);
+        probation.put(filename, new Entry(version, data));
+        probationBytes += data.length;
+        evictOverflow();
+    }
+
+    /** Drops the file so an upload or delete is never answered from stale content. */
+    public synchronized void invalidate(String filename) {
+        remove(filename);
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long lookups = hits + misses;
+        m.put("cacheHits", hits);
+        m.put("cacheMisses", misses);
+        m.put("cacheHitRatio", lookups == 0 ? 0.0 : Math.round(1000.0 * hits / lookups) / 1000.0);
+        m.put("cacheEvictions", evictions);
+        m.put("cacheEntries", probation.size() + protectedSegment.size());
+        m.put("cacheBytes", probationBytes + protectedBytes);
+        m.put("cacheMaxBytes", maxBytes);
+        return m;
+    }
+
+    private void remove(String filename) {
+        Entry e = probation.remove(filename);
+        if (e != null) probationBytes -= e.data.length;
+        e = protectedSegment.remove(filename);
+        if (e != null) protectedBytes -= e.data.length;
+    }
+
+    private void demoteOverflow() {
+        Iterator<Map.Entry<String, Entry>> it = protectedSegment.entrySet().iterator();
+        while (protectedBytes > protectedMax && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            protectedBytes -= eldest.getValue().data.length;
+            probation.put(eldest.getKey(), eldest.getValue());
+            probationBytes += eldest.getValue().data.length;
+        }
+        evictOverflow();
+    }
+
+    // Evicts from probation first; protected entries only go once it is empty
+    private void evictOverflow() {
+        evict(probation.entrySet().iterator(), true);
+        evict(protectedSegment.entrySet().iterator(), false);
+    }
+
+    private void evict(Iterator<Map.Entry<String, Entry>> it, boolean fromProbation) {
+        while (probationBytes + protectedBytes > maxBytes && it.hasNext()) {
+            long n = it.next().getValue().data.length;
+            it.remove();
+            if (fromProbation) probationBytes -= n; else protectedBytes -= n;
+            evictions++;
+        }
+    }
+
+    private static final class Entry {
+        final long version;
+        final byte[] data;
+
+        Entry(long version, byte[] data) { this.version = version; this.data = data; }
+    }
+}
@@ -1,5 +1,6 @@
 package com.mycompany.loadbalancer;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -16,8 +17,21 @@ public class RoundRobinPicker implements ContainerPicker {
         return healthy.get(Math.abs(i));
     }
 
+    // Replicas go to consecutive containers starting at the next position,
+    // so successive files rotate their primary across the whole list
+    @Override
+    public List<FileContainer> choose(List<FileContainer> healthy, int n) {
+        List<FileContainer> chosen = new ArrayList<>(n);
+        if (healthy == null || healthy.isEmpty()) return chosen;
+        int start = Math.floorMod(index.getAndIncrement(), healthy.size());
+        for (int i = 0; i < Math.min(n, healthy.size()); i++) {
+            chosen.add(healthy.get((start + i) % healthy.size()));
+        }
+        return chosen;
+    }
+
     @Override
     public String name() {
         return "Round Robin";
     }
-}
\ No newline at end of file
+}
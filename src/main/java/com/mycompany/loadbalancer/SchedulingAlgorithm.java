@@ -1,11 +1,38 @@
-
 package com.mycompany.loadbalancer;
 
+import java.util.Map;
 import java.util.Optional;
 
+/**
+ * Contract between the dispatcher loop and a scheduling policy.
+ * nextJob() must never block: when it returns empty the dispatcher parks
+ * until the scheduler fires the wakeup registered through setWakeup(), which
+ * every implementation calls from onJobArrived().
+ */
 public interface SchedulingAlgorithm {
     void onJobArrived(Job job);
     Optional<Job> nextJob();
+    /** Called once the job has finished, whether it succeeded or failed. */
     void onJobCompleted(Job job);
     String name();
+    void setWakeup(Runnable wakeup);
+
+    /**
+     * Whether a job should be queued at all; false rejects it before it
+     * reaches onJobArrived(). A policy may instead change the job (for
+     * example mark it best-effort) and accept it.
+     */
+    default boolean admit(Job job) { return true; }
+
+    /** Rank of the job's operations on a container queue; higher runs first. */
+    default int containerRank(Job job) { return job.priority; }
+
+    /**
+     * Length of the slices a job's simulated work is split into, so it can
+     * be overtaken between slices; 0 runs each operation in one piece.
+     */
+    default long preemptionChunkMs() { return 0; }
+
+    /** Policy-specific counters for /metrics. */
+    default Map<String, Object> metrics() { return Map.of(); }
 }
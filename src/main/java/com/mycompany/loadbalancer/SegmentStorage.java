@@ -0,0 +1,512 @@
+package com.mycompany.loadbalancer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured storage: every write and delete is appended to the active
+ * segment file and an in-memory index maps each key to its latest record.
+ * Reads are positional reads on the segment's channel. A value bigger than
+ * -Dlb.segment.maxBytes gets a segment to itself. A background task
+ * rewrites segments that are mostly dead records, and each sealed segment
+ * gets a hint file so restarts rebuild the index without reading values.
+ *
+ * Record layout: magic(4) flags(1) keyLen(4) valueLen(8) key value crc32(4)
+ */
+public class SegmentStorage implements ContainerStorage {
+    private static final int MAGIC = 0x4C425331; // "LBS1"
+    private static final byte TOMBSTONE = 1;
+    private static final int HEADER = 4 + 1 + 4 + 8;
+    private static final int TRAILER = 4;
+    private static final double COMPACT_DEAD_RATIO = 0.5;
+
+    private static final ScheduledExecutorService COMPACTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "segment-compactor"); t.setDaemon(true); return t;
+    });
+
+    private final Path dir;
+    private final long maxSegmentBytes;
+    private final Map<String, Loc> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final AtomicLong liveBytes = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    // A lock rather than a monitor: appends hold it across channel I/O
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final boolean sync = ContainerStorage.syncWrites();
+    private final ScheduledFuture<?> compaction;
+    private Segment active; // guarded by appendLock
+    private volatile boolean closed;
+
+    public SegmentStorage(Path dir) {
+        this(dir, Long.getLong("lb.segment.maxBytes", 64L * 1024 * 1024));
+    }
+
+    public SegmentStorage(Path dir, long maxSegmentBytes) {
+        this.dir = dir;
+        this.maxSegmentBytes = Math.max(HEADER + TRAILER, maxSegmentBytes);
+        try {
+            Files.createDirectories(dir);
+            recover();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open segment storage " + dir, e);
+        }
+        long interval = Long.getLong("lb.segment.compactIntervalMs", 30_000);
+        compaction = COMPACTOR.scheduleWithFixedDelay(this::compactQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    // --- ContainerStorage ---
+
+    @Override public void write(String key, InputStream in, long length) throws IOException {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        appendLock.lock();
+        try {
+            checkOpen();
+            Loc loc = append(k, in, length, (byte) 0);
+            publish(key, loc);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override public boolean delete(String key) throws IOException {
+        appendLock.lock();
+        try {
+            checkOpen();
+            if (!index.containsKey(key)) return false;
+            Loc tomb = append(key.getBytes(StandardCharsets.UTF_8), InputStream.nullInputStream(), 0, TOMBSTONE);
+            segments.get(tomb.segment).dead.addAndGet(tomb.recordLength);
+            retire(index.remove(key));
+            return true;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override public StoredObject read(String key) throws IOException {
+        checkOpen();
+        // A compaction can retire the segment between the index lookup and
+        // taking a reference; the index then already points at the copy.
+        // Once referenced, the segment's channel stays open until close().
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Loc loc = index.get(key);
+            if (loc == null) return null;
+            Segment seg = segments.get(loc.segment);
+            if (seg == null || !seg.acquire()) continue;
+            AtomicBoolean released = new AtomicBoolean();
+            return new StoredObject() {
+                @Override public long length() { return loc.valueLength; }
+                @Override public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+                    long pos = loc.valueOffset + position, end = pos + count;
+                    while (pos < end) {
+                        long n = seg.channel.transferTo(pos, end - pos, target);
+                        if (n <= 0) throw new IOException("Short transfer from " + key);
+                        pos += n;
+                    }
+                }
+                @Override public void close() throws IOException {
+                    if (released.compareAndSet(false, true)) seg.release();
+                }
+            };
+        }
+        throw new IOException("Could not read " + key + " while segments were being compacted");
+    }
+
+    @Override public boolean contains(String key) { return index.containsKey(key); }
+    @Override public Set<String> keys() { return Collections.unmodifiableSet(index.keySet()); }
+    @Override public int size() { return index.size(); }
+    @Override public long bytesStored() { return liveBytes.get(); }
+
+    public int segmentCount() { return segments.size(); }
+    public long compactions() { return compactions.get(); }
+
+    @Override public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("segments", segmentCount());
+        m.put("compactions", compactions());
+        return m;
+    }
+
+    /** Stops compaction; each segment's file closes once reads still streaming from it finish. */
+    @Override public void close() throws IOException {
+        compaction.cancel(false);
+        appendLock.lock();
+        try {
+            if (closed) return;
+            closed = true;
+            active.channel.force(true);
+        } finally {
+            appendLock.unlock();
+        }
+        for (Segment seg : segments.values()) seg.release();
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) throw new IOException("Segment storage " + dir + " is closed");
+    }
+
+    // --- Appending ---
+
+    // Caller holds appendLock. A record bigger than a segment starts a fresh
+    // one, and the next append rolls past it, so it ends up on its own.
+    private Loc append(byte[] key, InputStream in, long length, byte flags) throws IOException {
+        long recordLength = HEADER + key.length + length + TRAILER;
+        if (active.size + recordLength > maxSegmentBytes && active.size > 0) roll();
+        Segment seg = active;
+        long start = seg.size;
+        CRC32 crc = new CRC32();
+        try {
+            ByteBuffer head = ByteBuffer.allocate(HEADER + key.length);
+            head.putInt(MAGIC).put(flags).putInt(key.length).putLong(length).put(key).flip();
+            crc.update(key);
+            long pos = writeFully(seg.channel, head, start);
+
+            byte[] buf = new byte[Payload.CHUNK_SIZE];
+            long remaining = length;
+            while (remaining > 0) {
+                int r = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (r == -1) throw new EOFException("Value ended " + remaining + " bytes early");
+                crc.update(buf, 0, r);
+                pos = writeFully(seg.channel, ByteBuffer.wrap(buf, 0, r), pos);
+                remaining -= r;
+            }
+            ByteBuffer tail = ByteBuffer.allocate(TRAILER);
+            tail.putInt((int) crc.getValue()).flip();
+            writeFully(seg.channel, tail, pos);
+            if (sync) seg.channel.force(false);
+        } catch (IOException e) {
+            seg.channel.truncate(start);
+            throw e;
+        }
+        seg.size = start + recordLength;
+        Loc loc = new Loc(seg.id, start, start + HEADER + key.length, length, recordLength);
+        seg.hints.add(new Hint(new String(key, StandardCharsets.UTF_8), flags, loc));
+        return loc;
+    }
+
+    private static long writeFully(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) pos += ch.write(b, pos);
+        return pos;
+    }
+
+    // Caller holds appendLock
+    private void publish(String key, Loc loc) {
+        liveBytes.addAndGet(loc.valueLength);
+        retire(index.put(key, loc));
+    }
+
+    private void retire(Loc old) {
+        if (old == null) return;
+        liveBytes.addAndGet(-old.valueLength);
+        Segment seg = segments.get(old.segment);
+        if (seg != null) seg.dead.addAndGet(old.recordLength);
+    }
+
+    // Seals the active segment, writes its hint file and starts a new one.
+    // Caller holds appendLock.
+    private void roll() throws IOException {
+        Segment sealed = active;
+        sealed.channel.force(true);
+        sealed.sealed = true;
+        writeHints(sealed, sealed.hints);
+        sealed.hints.clear(); // the index holds what is live; compaction rereads the file
+        active = openSegment(sealed.id + 1);
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        Segment seg = new Segment(id, dir.resolve(segmentName(id)));
+        segments.put(id, seg);
+        return seg;
+    }
+
+    private static String segmentName(long id) { return String.format("seg-%010d.log", id); }
+
+    private Path hintPath(Segment seg) {
+        return dir.resolve(seg.path.getFileName().toString().replace(".log", ".hint"));
+    }
+
+    // --- Compaction ---
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException e) {
+            System.err.println("[Segments] Compaction of " + dir + " failed: " + e.getMessage());
+        }
+    }
+
+    /** Rewrites every sealed segment whose records are mostly dead. */
+    public void compact() throws IOException {
+        for (Segment seg : new ArrayList<>(segments.values())) {
+            if (!seg.sealed || seg.size == 0) continue;
+            if ((double) seg.dead.get() / seg.size < COMPACT_DEAD_RATIO) continue;
+            compactSegment(seg);
+        }
+    }
+
+    private void compactSegment(Segment seg) throws IOException {
+        boolean oldest = segments.firstKey() == seg.id;
+        for (Hint h : readHints(seg)) {
+            appendLock.lock();
+            try {
+                if (closed) return;
+                if (h.flags == TOMBSTONE) {
+                    // Still needed only if an older segment may hold the key
+                    // and nothing newer has written it since
+                    if (oldest || index.containsKey(h.key)) continue;
+                    Loc tomb = append(h.key.getBytes(StandardCharsets.UTF_8), InputStream.nullInputStream(), 0, TOMBSTONE);
+                    segments.get(tomb.segment).dead.addAndGet(tomb.recordLength);
+                    continue;
+                }
+                Loc current = index.get(h.key);
+                if (current == null || current.segment != seg.id || current.recordOffset != h.loc.recordOffset) continue;
+                InputStream value = new ChannelInput(seg.channel, current.valueOffset, current.valueLength);
+                Loc copy = append(h.key.getBytes(StandardCharsets.UTF_8), value, current.valueLength, (byte) 0);
+                index.put(h.key, copy);
+            } finally {
+                appendLock.unlock();
+            }
+        }
+        appendLock.lock();
+        try {
+            if (closed) return;
+            // Make the copies durable before the originals disappear
+            active.channel.force(true);
+            segments.remove(seg.id);
+        } finally {
+            appendLock.unlock();
+        }
+        seg.release(); // reads already streaming from it keep the file open
+        Files.deleteIfExists(hintPath(seg));
+        Files.deleteIfExists(seg.path);
+        compactions.incrementAndGet();
+    }
+
+    // --- Recovery ---
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> s = Files.list(dir)) {
+            files = s.filter(p -> p.getFileName().toString().matches("seg-\\d+\\.log"))
+                     .sorted()
+                     .collect(Collectors.toList());
+        }
+        for (int i = 0; i < files.size(); i++) {
+            String name = files.get(i).getFileName().toString();
+            long id = Long.parseLong(name.substring(4, name.length() - 4));
+            Segment seg = openSegment(id);
+            boolean last = i == files.size() - 1;
+            List<Hint> hints;
+            if (!last && Files.exists(hintPath(seg))) {
+                hints = readHints(seg);
+            } else {
+                hints = scan(seg, last);
+                if (!last) writeHints(seg, hints);
+            }
+            for (Hint h : hints) apply(h);
+            if (last) {
+                seg.hints.addAll(hints);
+                active = seg;
+            } else {
+                seg.sealed = true;
+            }
+        }
+        if (active == null) active = openSegment(0);
+    }
+
+    private void apply(Hint h) {
+        Segment seg = segments.get(h.loc.segment);
+        if (h.flags == TOMBSTONE) {
+            seg.dead.addAndGet(h.loc.recordLength);
+            retire(index.remove(h.key));
+        } else {
+            publish(h.key, h.loc);
+        }
+    }
+
+    // Reads records front to back, checking each CRC. A torn record at the
+    // tail of the last segment is cut off; anywhere else it ends the scan.
+    private List<Hint> scan(Segment seg, boolean truncateTail) throws IOException {
+        List<Hint> hints = new ArrayList<>();
+        FileChannel ch = seg.channel;
+        long pos = 0, end = ch.size();
+        while (pos + HEADER <= end) {
+            ByteBuffer head = ByteBuffer.allocate(HEADER);
+            ch.read(head, pos);
+            head.flip();
+            if (head.getInt() != MAGIC) break;
+            byte flags = head.get();
+            int keyLen = head.getInt();
+            long valueLen = head.getLong();
+            long recordLength = HEADER + keyLen + valueLen + TRAILER;
+            if (keyLen < 0 || valueLen < 0 || pos + recordLength > end) break;
+            ByteBuffer key = ByteBuffer.allocate(keyLen);
+            ch.read(key, pos + HEADER);
+            if (!crcMatches(ch, key.array(), pos + HEADER + keyLen, valueLen)) break;
+            Loc loc = new Loc(seg.id, pos, pos + HEADER + keyLen, valueLen, recordLength);
+            hints.add(new Hint(new String(key.array(), StandardCharsets.UTF_8), flags, loc));
+            pos += recordLength;
+        }
+        if (pos < end) {
+            System.err.println("[Segments] " + seg.path + ": discarding " + (end - pos) + " bytes after offset " + pos);
+            if (truncateTail) ch.truncate(pos);
+        }
+        seg.size = pos;
+        return hints;
+    }
+
+    private static boolean crcMatches(FileChannel ch, byte[] key, long valueOffset, long valueLen) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        ByteBuffer buf = ByteBuffer.allocate(Payload.CHUNK_SIZE);
+        long pos = valueOffset, end = valueOffset + valueLen;
+        while (pos < end) {
+            buf.clear().limit((int) Math.min(buf.capacity(), end - pos));
+            int r = ch.read(buf, pos);
+            if (r <= 0) return false;
+            buf.flip();
+            crc.update(buf);
+            pos += r;
+        }
+        ByteBuffer tail = ByteBuffer.allocate(TRAILER);
+        if (ch.read(tail, end) != TRAILER) return false;
+        return tail.flip().getInt() == (int) crc.getValue();
+    }
+
+    private void writeHints(Segment seg, List<Hint> hints) throws IOException {
+        Path tmp = hintPath(seg).resolveSibling(hintPath(seg).getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeLong(seg.size);
+            for (Hint h : hints) {
+                byte[] k = h.key.getBytes(StandardCharsets.UTF_8);
+                out.writeByte(h.flags);
+                out.writeInt(k.length);
+                out.write(k);
+                out.writeLong(h.loc.recordOffset);
+                out.writeLong(h.loc.valueLength);
+            }
+        }
+        Files.move(tmp, hintPath(seg), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<Hint> readHints(Segment seg) throws IOException {
+        List<Hint> hints = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(hintPath(seg))))) {
+            seg.size = in.readLong();
+            while (true) {
+                byte flags;
+                try { flags = in.readByte(); } catch (EOFException e) { break; }
+                byte[] k = new byte[in.readInt()];
+                in.readFully(k);
+                long offset = in.readLong();
+                long valueLen = in.readLong();
+                Loc loc = new Loc(seg.id, offset, offset + HEADER + k.length, valueLen, HEADER + k.length + valueLen + TRAILER);
+                hints.add(new Hint(new String(k, StandardCharsets.UTF_8), flags, loc));
+            }
+        }
+        return hints;
+    }
+
+    // --- Types ---
+
+    private static final class Loc {
+        final long segment, recordOffset, valueOffset, valueLength, recordLength;
+
+        Loc(long segment, long recordOffset, long valueOffset, long valueLength, long recordLength) {
+            this.segment = segment; this.recordOffset = recordOffset; this.valueOffset = valueOffset;
+            this.valueLength = valueLength; this.recordLength = recordLength;
+        }
+    }
+
+    private static final class Hint {
+        final String key;
+        final byte flags;
+        final Loc loc;
+
+        Hint(String key, byte flags, Loc loc) { this.key = key; this.flags = flags; this.loc = loc; }
+    }
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        final AtomicLong dead = new AtomicLong();
+        final List<Hint> hints = new ArrayList<>(); // records of the active segment only
+        // One reference held by the storage while the segment is listed, one per open read
+        final AtomicInteger refs = new AtomicInteger(1);
+        volatile long size;
+        volatile boolean sealed;
+
+        Segment(long id, Path path) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+
+        /** False once the segment has been released for good. */
+        boolean acquire() {
+            for (int r = refs.get(); r > 0; r = refs.get()) {
+                if (refs.compareAndSet(r, r + 1)) return true;
+            }
+            return false;
+        }
+
+        void release() throws IOException {
+            if (refs.decrementAndGet() == 0) channel.close();
+        }
+    }
+
+    /** Positional reads of one range of a channel, leaving its position alone. */
+    private static final class ChannelInput extends InputStream {
+        private final FileChannel ch;
+        private long pos;
+        private final long end;
+
+        ChannelInput(FileChannel ch, long offset, long length) { this.ch = ch; this.pos = offset; this.end = offset + length; }
+
+        @Override public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            if (pos >= end) return -1;
+            int r = ch.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+            if (r == -1) return -1;
+            pos += r;
+            return r;
+        }
+    }
+}
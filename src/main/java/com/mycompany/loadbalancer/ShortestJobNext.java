@@ -1,21 +1,20 @@
-
 package com.mycompany.loadbalancer;
 
 
 import java.util.*;
+import java.util.concurrent.PriorityBlockingQueue;
 
 public class ShortestJobNext implements SchedulingAlgorithm {
-    private final List<Job> list = Collections.synchronizedList(new ArrayList<>());
+    // Smallest job first; estimated time, then arrival, break ties
+    private final PriorityBlockingQueue<Job> heap = new PriorityBlockingQueue<>(11,
+            Comparator.<Job>comparingInt(j -> j.sizeKB)
+                    .thenComparingLong(j -> j.estimatedMs)
+                    .thenComparingLong(j -> j.arrivedAt));
+    private volatile Runnable wakeup = () -> {};
 
-    @Override public void onJobArrived(Job job) { list.add(job); }
-    @Override public Optional<Job> nextJob() {
-        synchronized (list) {
-            if (list.isEmpty()) return Optional.empty();
-            Job best = list.stream().min(Comparator.comparingInt(j -> j.sizeKB)).orElse(null);
-            if (best != null) list.remove(best);
-            return Optional.ofNullable(best);
-        }
-    }
+    @Override public void onJobArrived(Job job) { heap.offer(job); wakeup.run(); }
+    @Override public Optional<Job> nextJob() { return Optional.ofNullable(heap.poll()); }
     @Override public void onJobCompleted(Job job) {}
     @Override public String name() { return "Shortest-Job-Next"; }
+    @Override public void setWakeup(Runnable wakeup) { this.wakeup = wakeup; }
 }
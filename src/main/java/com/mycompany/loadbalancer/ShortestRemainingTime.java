@@ -0,0 +1,32 @@
+package com.mycompany.loadbalancer;
+
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * Shortest Remaining Time: the job with the least simulated work left goes
+ * first. Jobs run on their containers in chunks of -Dlb.srt.chunkMs, and
+ * every chunk is queued by the work left, so a shorter job arriving at a
+ * container overtakes a long one at its next chunk boundary.
+ */
+public class ShortestRemainingTime implements SchedulingAlgorithm {
+    private final PriorityBlockingQueue<Job> heap = new PriorityBlockingQueue<>(11,
+            Comparator.<Job>comparingLong(j -> j.remainingMs)
+                    .thenComparingLong(j -> j.arrivedAt));
+    private final long chunkMs = Math.max(1, Long.getLong("lb.srt.chunkMs", 100));
+    private volatile Runnable wakeup = () -> {};
+
+    @Override public void onJobArrived(Job job) { heap.offer(job); wakeup.run(); }
+    @Override public Optional<Job> nextJob() { return Optional.ofNullable(heap.poll()); }
+    @Override public void onJobCompleted(Job job) {}
+    @Override public String name() { return "Shortest-Remaining-Time"; }
+    @Override public void setWakeup(Runnable wakeup) { this.wakeup = wakeup; }
+
+    // Less work left ranks higher on the container queue
+    @Override public int containerRank(Job job) {
+        return (int) -Math.min(job.remainingMs, Integer.MAX_VALUE);
+    }
+
+    @Override public long preemptionChunkMs() { return chunkMs; }
+}
@@ -0,0 +1,270 @@
+package com.mycompany.loadbalancer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory storage that keeps file content off the Java heap. Direct
+ * buffers are carved into power-of-two slots from 64 B to 1 MB; a value is
+ * stored as a run of 1 MB slots plus one smaller slot for its tail. Each
+ * slab serves one size class at a time. Slots go back to their slab on
+ * delete, and a slab whose slots are all free goes back to a pool shared by
+ * every size class, so memory follows the current mix of file sizes. The
+ * heap only holds a small index entry per file and the GC never scans the
+ * content.
+ */
+public class SlabStorage implements ContainerStorage {
+    private static final int MIN_SHIFT = 6;   // 64 B
+    private static final int MAX_SHIFT = 20;  // 1 MB
+    private static final int MAX_SLOT = 1 << MAX_SHIFT;
+    private static final int SLAB_BYTES = 4 * MAX_SLOT;
+
+    private final long maxBytes;
+    private final List<Slab> slabs = new CopyOnWriteArrayList<>();
+    // Per size class, its slabs that have a free slot; each set is its class's lock
+    private final LinkedHashSet<Slab>[] partial;
+    private final ArrayDeque<Slab> emptySlabs = new ArrayDeque<>(); // guarded by itself
+    private final AtomicLong recycled = new AtomicLong();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong reserved = new AtomicLong();  // slab memory allocated
+    private final AtomicLong inSlots = new AtomicLong();   // slot capacity handed out
+    private final AtomicLong logical = new AtomicLong();   // content bytes stored
+
+    public SlabStorage() {
+        this(Long.getLong("lb.slab.maxBytes", 1L << 30));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SlabStorage(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.partial = new LinkedHashSet[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i = 0; i < partial.length; i++) partial[i] = new LinkedHashSet<>();
+    }
+
+    @Override public void write(String key, InputStream in, long length) throws IOException {
+        int count = (int) ((length + MAX_SLOT - 1) / MAX_SLOT);
+        long[] slots = new long[count];
+        int allocated = 0;
+        try {
+            byte[] buf = new byte[Payload.CHUNK_SIZE];
+            long remaining = length;
+            for (int i = 0; i < count; i++) {
+                int take = (int) Math.min(remaining, MAX_SLOT);
+                slots[i] = allocate(classFor(take));
+                allocated++;
+                fill(slots[i], take, in, buf);
+                remaining -= take;
+            }
+        } catch (IOException | RuntimeException e) {
+            for (int i = 0; i < allocated; i++) release(slots, i, length);
+            throw e;
+        }
+        Entry entry = new Entry(length, slots);
+        logical.addAndGet(length);
+        Entry old = entries.put(key, entry);
+        if (old != null) old.unref();
+    }
+
+    @Override public StoredObject read(String key) {
+        Entry e;
+        // Retry if a concurrent delete freed the entry before we pinned it
+        do {
+            e = entries.get(key);
+            if (e == null) return null;
+        } while (!e.ref());
+        Entry entry = e;
+        return new StoredObject() {
+            private boolean closed;
+            @Override public long length() { return entry.length; }
+            @Override public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+                long end = position + count;
+                while (position < end) {
+                    int i = (int) (position / MAX_SLOT);
+                    int off = (int) (position % MAX_SLOT);
+                    int n = (int) Math.min(end - position, slotLength(entry, i) - off);
+                    ByteBuffer b = view(entry.slots[i], off, n);
+                    while (b.hasRemaining()) target.write(b);
+                    position += n;
+                }
+            }
+            @Override public synchronized void close() {
+                if (!closed) { closed = true; entry.unref(); }
+            }
+        };
+    }
+
+    @Override public boolean delete(String key) {
+        Entry old = entries.remove(key);
+        if (old == null) return false;
+        old.unref(); // slots are freed now, or when the last open reader closes
+        return true;
+    }
+
+    @Override public boolean contains(String key) { return entries.containsKey(key); }
+    @Override public Set<String> keys() { return Collections.unmodifiableSet(entries.keySet()); }
+    @Override public int size() { return entries.size(); }
+    @Override public long bytesStored() { return logical.get(); }
+
+    @Override public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("offHeapReserved", reserved.get());
+        m.put("offHeapInSlots", inSlots.get());
+        m.put("offHeapLimit", maxBytes);
+        synchronized (emptySlabs) { m.put("offHeapEmptySlabs", emptySlabs.size()); }
+        m.put("slabsRecycled", recycled.get());
+        return m;
+    }
+
+    // --- Slots ---
+    // A slot handle packs (slab index + 1) in the high 32 bits and the byte
+    // offset within the slab in the low 32, so 0 never names a real slot.
+
+    private static int classFor(int length) {
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, length) - 1));
+        return Math.min(shift, MAX_SHIFT) - MIN_SHIFT;
+    }
+
+    private long allocate(int cls) throws IOException {
+        LinkedHashSet<Slab> slabsWithRoom = partial[cls];
+        synchronized (slabsWithRoom) {
+            if (slabsWithRoom.isEmpty()) slabsWithRoom.add(carve(cls));
+            Iterator<Slab> it = slabsWithRoom.iterator();
+            Slab slab = it.next();
+            long slot = slab.free.pop();
+            slab.used++;
+            if (slab.free.isEmpty()) it.remove();
+            inSlots.addAndGet(1L << (cls + MIN_SHIFT));
+            return slot;
+        }
+    }
+
+    // Splits an empty slab, from the pool or newly allocated, into slots of
+    // one size class. Caller holds the class's lock.
+    private Slab carve(int cls) throws IOException {
+        Slab slab;
+        synchronized (emptySlabs) { slab = emptySlabs.poll(); }
+        if (slab != null) {
+            recycled.incrementAndGet();
+        } else {
+            if (reserved.addAndGet(SLAB_BYTES) > maxBytes) {
+                reserved.addAndGet(-SLAB_BYTES);
+                throw new IOException("Off-heap storage full (" + maxBytes + " bytes)");
+            }
+            synchronized (slabs) {
+                slab = new Slab(slabs.size(), ByteBuffer.allocateDirect(SLAB_BYTES));
+                slabs.add(slab);
+            }
+        }
+        int size = 1 << (cls + MIN_SHIFT);
+        for (int off = SLAB_BYTES - size; off >= 0; off -= size) {
+            slab.free.push(((long) (slab.index + 1) << 32) | off);
+        }
+        return slab;
+    }
+
+    private void release(long[] slots, int i, long length) {
+        int cls = i < slots.length - 1 ? classFor(MAX_SLOT) : classFor((int) (length - (long) i * MAX_SLOT));
+        Slab slab = slabs.get((int) (slots[i] >>> 32) - 1);
+        LinkedHashSet<Slab> slabsWithRoom = partial[cls];
+        synchronized (slabsWithRoom) {
+            slab.free.push(slots[i]);
+            slab.used--;
+            if (slab.used == 0) {
+                // Every slot is back: the slab leaves this class for the pool
+                slabsWithRoom.remove(slab);
+                slab.free.clear();
+                synchronized (emptySlabs) { emptySlabs.push(slab); }
+            } else {
+                slabsWithRoom.add(slab);
+            }
+        }
+        inSlots.addAndGet(-(1L << (cls + MIN_SHIFT)));
+    }
+
+    private ByteBuffer view(long slot, int off, int len) {
+        ByteBuffer b = slabs.get((int) (slot >>> 32) - 1).buffer.duplicate();
+        int base = (int) slot;
+        b.position(base + off).limit(base + off + len);
+        return b;
+    }
+
+    private void fill(long slot, int take, InputStream in, byte[] buf) throws IOException {
+        ByteBuffer dst = view(slot, 0, take);
+        while (dst.hasRemaining()) {
+            int r = in.read(buf, 0, Math.min(buf.length, dst.remaining()));
+            if (r == -1) throw new EOFException("Value ended " + dst.remaining() + " bytes early");
+            dst.put(buf, 0, r);
+        }
+    }
+
+    private static long slotLength(Entry e, int i) {
+        return i < e.slots.length - 1 ? MAX_SLOT : e.length - (long) i * MAX_SLOT;
+    }
+
+    // Index entry; starts with one reference held by the map, and each open
+    // reader holds another. Slots are freed when the count reaches zero.
+    private final class Entry {
+        final long length;
+        final long[] slots;
+        final AtomicInteger refs = new AtomicInteger(1);
+
+        Entry(long length, long[] slots) { this.length = length; this.slots = slots; }
+
+        boolean ref() {
+            int r;
+            do {
+                r = refs.get();
+                if (r == 0) return false;
+            } while (!refs.compareAndSet(r, r + 1));
+            return true;
+        }
+
+        void unref() {
+            if (refs.decrementAndGet() != 0) return;
+            logical.addAndGet(-length);
+            for (int i = 0; i < slots.length; i++) release(slots, i, length);
+        }
+    }
+
+    // Slot bookkeeping is guarded by the lock of the size class it serves
+    private static final class Slab {
+        final int index;
+        final ByteBuffer buffer;
+        final LongStack free = new LongStack();
+        int used;
+
+        Slab(int index, ByteBuffer buffer) { this.index = index; this.buffer = buffer; }
+    }
+
+    private static final class LongStack {
+        private long[] items = new long[64];
+        private int size;
+
+        boolean isEmpty() { return size == 0; }
+
+        void push(long v) {
+            if (size == items.length) items = Arrays.copyOf(items, size * 2);
+            items[size++] = v;
+        }
+
+        long pop() { return items[--size]; }
+
+        void clear() { size = 0; }
+    }
+}
@@ -0,0 +1,75 @@
+package com.mycompany.loadbalancer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Upload body copied in fixed-size chunks to a temporary file under
+ * -Dlb.spoolDir, so heap use per upload is one chunk buffer no matter how
+ * large the file is. The body is read once and every replica write streams
+ * from the file, long after the request itself has been answered.
+ */
+public class SpooledPayload implements Payload {
+    private static final Path SPOOL_DIR = Paths.get(System.getProperty("lb.spoolDir", System.getProperty("java.io.tmpdir")));
+
+    private volatile Path file;
+    private volatile long length;
+
+    private SpooledPayload(long length) {
+        this.length = length;
+    }
+
+    public static SpooledPayload spool(InputStream in) throws IOException {
+        SpooledPayload p = new SpooledPayload(0);
+        p.fill(in);
+        return p;
+    }
+
+    /**
+     * A payload whose body is read later with fill(), so a job can be
+     * admitted before anything is written to disk. Until then length() is
+     * the expected length.
+     */
+    public static SpooledPayload pending(long expectedLength) {
+        return new SpooledPayload(expectedLength);
+    }
+
+    /** Copies in to the spool file; called once, before the payload is opened. */
+    public void fill(InputStream in) throws IOException {
+        Files.createDirectories(SPOOL_DIR);
+        Path f = Files.createTempFile(SPOOL_DIR, "lb-upload-", ".part");
+        long total = 0;
+        try (OutputStream out = Files.newOutputStream(f)) {
+            byte[] buf = new byte[CHUNK_SIZE];
+            int r;
+            while ((r = in.read(buf)) != -1) {
+                out.write(buf, 0, r);
+                total += r;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(f);
+            throw e;
+        }
+        length = total;
+        file = f;
+    }
+
+    @Override public long length() { return length; }
+
+    @Override public InputStream open() throws IOException {
+        Path f = file;
+        if (f == null) throw new IOException("Upload body has not been read");
+        return Files.newInputStream(f);
+    }
+
+    @Override public void release() {
+        Path f = file;
+        if (f == null) return;
+        try { Files.deleteIfExists(f); }
+        catch (IOException e) { System.err.println("[Spool] Could not delete " + f + ": " + e.getMessage()); }
+    }
+}
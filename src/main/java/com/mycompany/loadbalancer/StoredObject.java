@@ -0,0 +1,31 @@
+package com.mycompany.loadbalancer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A stable view of one stored value, opened while the container operation
+ * held the file's lock. It stays readable after a later overwrite or
+ * delete, so the response can be streamed after the job has finished.
+ */
+public interface StoredObject extends Closeable {
+    long length();
+
+    /** Writes count bytes starting at position to target. */
+    void transferTo(long position, long count, WritableByteChannel target) throws IOException;
+
+    @Override default void close() throws IOException {}
+
+    /** A view of an in-memory value; the array must not change afterwards. */
+    static StoredObject of(byte[] data) {
+        return new StoredObject() {
+            @Override public long length() { return data.length; }
+            @Override public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+                ByteBuffer buf = ByteBuffer.wrap(data, (int) position, (int) count);
+                while (buf.hasRemaining()) target.write(buf);
+            }
+        };
+    }
+}
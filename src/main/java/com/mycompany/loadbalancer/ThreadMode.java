@@ -0,0 +1,36 @@
+package com.mycompany.loadbalancer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selects platform or virtual threads for the job workers and the HTTP
+ * front end. Chosen at startup with -Dlb.threads=platform|virtual.
+ */
+public enum ThreadMode {
+    PLATFORM, VIRTUAL;
+
+    public static ThreadMode fromProperty() {
+        String v = System.getProperty("lb.threads", "platform");
+        return "virtual".equalsIgnoreCase(v) ? VIRTUAL : PLATFORM;
+    }
+
+    // Virtual threads are cheap to park, so the default concurrency limit
+    // can be far higher than a platform pool would tolerate.
+    public int defaultWorkers() {
+        return this == VIRTUAL ? 10_000 : 64;
+    }
+
+    public ExecutorService newExecutor(String namePrefix, int platformThreads) {
+        if (this == VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 1).factory());
+        }
+        AtomicInteger threadNo = new AtomicInteger();
+        return Executors.newFixedThreadPool(platformThreads, r -> {
+            Thread t = new Thread(r, namePrefix + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
@@ -13,7 +13,11 @@ public class UserService {
     }
 
     private final Map<String, User> users = new ConcurrentHashMap<>();
-    private final List<ShareEntry> shares = Collections.synchronizedList(new ArrayList<>());
+    // One grant per (target, filename); lookups are a single map read.
+    // shareKeysByUser lists the grants each user made or received, for
+    // listing and for revoking everything when a user is deleted.
+    private final Map<ShareKey, ShareEntry> shares = new ConcurrentHashMap<>();
+    private final Map<String, Set<ShareKey>> shareKeysByUser = new ConcurrentHashMap<>();
 
     public UserService() { users.put("admin", new User("admin", "admin", User.Role.ADMIN)); }
 
@@ -23,7 +27,12 @@ public class UserService {
     public boolean updateUser(String name, String pass, User.Role role) {
         User u = users.get(name); if (u == null) return false; if (pass != null) u.password = pass; if (role != null) u.role = role; return true;
     }
-    public boolean deleteUser(String name) { return users.remove(name) != null; }
+    public boolean deleteUser(String name) {
+        if (users.remove(name) == null) return false;
+        Set<ShareKey> keys = shareKeysByUser.remove(name);
+        if (keys != null) keys.forEach(this::removeShare);
+        return true;
+    }
     public boolean promoteToAdmin(String name) { User u = users.get(name); if (u == null) return false; u.role = User.Role.ADMIN; return true; }
 
     public User auth(String userHeader, String passHeader) {
@@ -35,17 +44,57 @@ public class UserService {
     public boolean isOwner(String requester, String filename) { return filename.startsWith(requester + ":"); }
     public boolean canRead(String requester, String filename) {
         if (isOwner(requester, filename)) return true;
-        synchronized (shares) {
-            return shares.stream().anyMatch(s -> s.target.equals(requester) && s.filename.equals(filename) && (s.perm == Perm.READ || s.perm == Perm.WRITE));
-        }
+        return shares.containsKey(new ShareKey(requester, filename)); // WRITE implies READ
     }
     public boolean canWrite(String requester, String filename) {
         if (isOwner(requester, filename)) return true;
-        synchronized (shares) {
-            return shares.stream().anyMatch(s -> s.target.equals(requester) && s.filename.equals(filename) && s.perm == Perm.WRITE);
-        }
+        ShareEntry s = shares.get(new ShareKey(requester, filename));
+        return s != null && s.perm == Perm.WRITE;
     }
+    // Sharing again keeps the stronger of the two permissions
     public boolean share(String owner, String to, String filename, Perm perm) {
-        if (!isOwner(owner, filename)) return false; shares.add(new ShareEntry(owner, to, filename, perm)); return true;
+        if (!isOwner(owner, filename)) return false;
+        ShareKey key = new ShareKey(to, filename);
+        shares.merge(key, new ShareEntry(owner, to, filename, perm), (old, now) -> old.perm == Perm.WRITE ? old : now);
+        index(owner, key);
+        index(to, key);
+        return true;
+    }
+    public boolean revoke(String owner, String to, String filename) {
+        if (!isOwner(owner, filename)) return false;
+        return removeShare(new ShareKey(to, filename));
+    }
+    /** Grants the user made or received. */
+    public List<ShareEntry> sharesFor(String user) {
+        List<ShareEntry> out = new ArrayList<>();
+        for (ShareKey k : shareKeysByUser.getOrDefault(user, Collections.emptySet())) {
+            ShareEntry s = shares.get(k);
+            if (s != null) out.add(s);
+        }
+        return out;
+    }
+    public int shareCount() { return shares.size(); }
+
+    private void index(String user, ShareKey key) {
+        shareKeysByUser.computeIfAbsent(user, u -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+    private boolean removeShare(ShareKey key) {
+        ShareEntry s = shares.remove(key);
+        if (s == null) return false;
+        Set<ShareKey> owned = shareKeysByUser.get(s.owner), received = shareKeysByUser.get(s.target);
+        if (owned != null) owned.remove(key);
+        if (received != null) received.remove(key);
+        return true;
+    }
+
+    private static final class ShareKey {
+        final String target, filename;
+        ShareKey(String target, String filename) { this.target = target; this.filename = filename; }
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof ShareKey)) return false;
+            ShareKey k = (ShareKey) o;
+            return target.equals(k.target) && filename.equals(k.filename);
+        }
+        @Override public int hashCode() { return 31 * target.hashCode() + filename.hashCode(); }
     }
 }
@@ -0,0 +1,144 @@
+package com.mycompany.loadbalancer;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Group commit for small uploads to one container. Writes wait here until
+ * -Dlb.batch.maxBytes have gathered or -Dlb.batch.lingerMs has passed, then
+ * run as one container operation: one lock and one simulated I/O delay for
+ * the whole batch. While a batch runs, the next one keeps filling, so the
+ * busier the container the larger its batches. Each write still completes
+ * on its own. Off unless -Dlb.batch.maxBytes is set.
+ */
+public class WriteBatcher {
+    private final FileContainer container;
+    private final long maxBytes;
+    private final long lingerMs;
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private long pendingBytes;
+    private boolean opQueued; // a batch op is waiting on the container and will take what is pending
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedWrites = new AtomicLong();
+
+    public WriteBatcher(FileContainer container, long maxBytes, long lingerMs) {
+        this.container = container;
+        this.maxBytes = maxBytes;
+        this.lingerMs = lingerMs;
+    }
+
+    /** Queues the job's write of data; completes once it is stored or has failed. */
+    public CompletableFuture<Void> write(Job job, Payload data, int rank) {
+        Pending p = new Pending(job, data, rank);
+        boolean startTimer = false;
+        synchronized (this) {
+            pending.add(p);
+            pendingBytes += data.length();
+            if (!opQueued) {
+                if (pendingBytes >= maxBytes || lingerMs <= 0) queueOp();
+                else startTimer = pending.size() == 1;
+            }
+        }
+        if (startTimer) {
+            CompletableFuture.delayedExecutor(lingerMs, TimeUnit.MILLISECONDS).execute(() -> {
+                synchronized (this) {
+                    if (!opQueued && !pending.isEmpty()) queueOp();
+                }
+            });
+        }
+        return p.done;
+    }
+
+    /** Batches run so far. */
+    public long batches() { return batches.get(); }
+
+    /** Writes stored through those batches. */
+    public long batchedWrites() { return batchedWrites.get(); }
+
+    // Caller holds the monitor. The batch is only taken when the op starts,
+    // so writes arriving while it waits for the container still join it; it
+    // then locks just the files in the batch.
+    private void queueOp() {
+        opQueued = true;
+        int rank = Integer.MIN_VALUE;
+        for (Pending p : pending) rank = Math.max(rank, p.rank);
+        AtomicReference<List<Pending>> batch = new AtomicReference<>();
+        container.submitWrites(rank, () -> {
+            List<Pending> taken = take();
+            batch.set(taken);
+            List<String> keys = new ArrayList<>(taken.size());
+            for (Pending p : taken) keys.add(p.job.filename);
+            return keys;
+        }, () -> {
+            runBatch(batch.get());
+            return null;
+        }).whenComplete((v, err) -> {
+            // Only reached when the op itself failed, e.g. the container shut down
+            if (err != null) failPending(err);
+        });
+    }
+
+    private synchronized List<Pending> take() {
+        List<Pending> batch = new ArrayList<>();
+        long bytes = 0;
+        while (!pending.isEmpty() && (batch.isEmpty() || bytes + pending.peekFirst().data.length() <= maxBytes)) {
+            Pending p = pending.pollFirst();
+            bytes += p.data.length();
+            batch.add(p);
+        }
+        pendingBytes -= bytes;
+        opQueued = false;
+        if (!pending.isEmpty()) queueOp(); // the rest goes in the next batch
+        return batch;
+    }
+
+    private void runBatch(List<Pending> batch) {
+        long kb = 0;
+        for (Pending p : batch) kb += p.job.sizeKB;
+        try {
+            // Same cost model as a single write, paid once for the batch
+            Thread.sleep(Job.simulatedMs(kb));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Pending p : batch) p.done.completeExceptionally(e);
+            return;
+        }
+        for (Pending p : batch) {
+            try (InputStream in = p.data.open()) {
+                container.storage.write(p.job.filename, in, p.data.length());
+                container.totalOps.incrementAndGet();
+                p.done.complete(null);
+            } catch (Exception e) {
+                p.done.completeExceptionally(e);
+            }
+        }
+        batches.incrementAndGet();
+        batchedWrites.addAndGet(batch.size());
+    }
+
+    private void failPending(Throwable err) {
+        List<Pending> failed;
+        synchronized (this) {
+            failed = new ArrayList<>(pending);
+            pending.clear();
+            pendingBytes = 0;
+            opQueued = false;
+        }
+        for (Pending p : failed) p.done.completeExceptionally(err);
+    }
+
+    private static final class Pending {
+        final Job job;
+        final Payload data;
+        final int rank;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(Job job, Payload data, int rank) { this.job = job; this.data = data; this.rank = rank; }
+    }
+}
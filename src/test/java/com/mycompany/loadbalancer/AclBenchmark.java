@@ -0,0 +1,95 @@
+package com.mycompany.loadbalancer;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * UserService permission checks with a large number of shares between
+ * 10,000 users: granted and denied reads, writes, the same checks from
+ * several threads at once, and listing one user's shares.
+ *
+ * Run: java -cp target/test-classes:target/classes:&lt;test classpath&gt;
+ *      org.openjdk.jmh.Main AclBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class AclBenchmark {
+    private static final int USERS = 10_000;
+    private static final int QUERIES = 1 << 16;
+
+    @Param({"1000000"})
+    public int shares;
+
+    private UserService service;
+    // Precomputed so the measured loop does no string building
+    private String[] requesters, sharedFiles, otherFiles;
+
+    @Setup(Level.Trial) public void setUp() {
+        service = new UserService();
+        for (int u = 0; u < USERS; u++) service.createUser("u" + u, "p", User.Role.STANDARD);
+        for (int i = 0; i < shares; i++) {
+            int owner = i % USERS, target = (i * 7 + 1) % USERS;
+            service.share("u" + owner, "u" + target, "u" + owner + ":file-" + i,
+                    i % 2 == 0 ? UserService.Perm.READ : UserService.Perm.WRITE);
+        }
+        requesters = new String[QUERIES];
+        sharedFiles = new String[QUERIES];
+        otherFiles = new String[QUERIES];
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int q = 0; q < QUERIES; q++) {
+            int i = rnd.nextInt(shares), owner = i % USERS, target = (i * 7 + 1) % USERS;
+            requesters[q] = "u" + target;
+            sharedFiles[q] = "u" + owner + ":file-" + i;
+            otherFiles[q] = "u" + owner + ":file-" + (shares + i); // never shared
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int advance() { return next = (next + 1) & (QUERIES - 1); }
+    }
+
+    @Benchmark public boolean canReadGranted(Cursor c) {
+        int q = c.advance();
+        return service.canRead(requesters[q], sharedFiles[q]);
+    }
+
+    @Benchmark public boolean canReadDenied(Cursor c) {
+        int q = c.advance();
+        return service.canRead(requesters[q], otherFiles[q]);
+    }
+
+    @Benchmark public boolean canWrite(Cursor c) {
+        int q = c.advance();
+        return service.canWrite(requesters[q], sharedFiles[q]);
+    }
+
+    @Benchmark @Threads(4) public boolean canReadFourThreads(Cursor c) {
+        int q = c.advance();
+        return service.canRead(requesters[q], sharedFiles[q]);
+    }
+
+    @Benchmark public List<UserService.ShareEntry> sharesFor(Cursor c) {
+        return service.sharesFor(requesters[c.advance()]);
+    }
+}
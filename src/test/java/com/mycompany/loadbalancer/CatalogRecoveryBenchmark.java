@@ -0,0 +1,108 @@
+package com.mycompany.loadbalancer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Startup recovery of a persisted catalog holding the given number of files
+ * with two replicas each, recorded either as one snapshot or only as WAL
+ * records. recoverCatalog opens a FileCatalog, as Main does, so it includes
+ * rebuilding both indexes; recoverLog only reads and decodes the files.
+ *
+ * The 10M case needs about 6 GB of heap.
+ *
+ * Run: java -cp target/test-classes:target/classes:&lt;test classpath&gt;
+ *      org.openjdk.jmh.Main CatalogRecoveryBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class CatalogRecoveryBenchmark {
+    @Param({"1000000", "10000000"})
+    public int entries;
+
+    @Param({"snapshot", "wal"})
+    public String source;
+
+    private Path dir;
+    private final Map<String, FileContainer> containers = new HashMap<>();
+
+    @Setup(Level.Trial) public void setUp() throws IOException {
+        // Nothing may snapshot or roll the log behind the benchmark's back
+        System.setProperty("lb.catalog.walMaxBytes", String.valueOf(Long.MAX_VALUE));
+        System.setProperty("lb.catalog.snapshotIntervalMs", String.valueOf(Long.MAX_VALUE));
+        for (int i = 0; i < 4; i++) {
+            FileContainer c = new FileContainer("r" + i, FileContainer.LockMode.CONTAINER, 1);
+            containers.put(c.id, c);
+        }
+        FileContainer[] all = containers.values().toArray(new FileContainer[0]);
+        dir = Files.createTempDirectory("lb-catalog-bench");
+
+        Map<String, List<FileContainer>> live = new ConcurrentHashMap<>();
+        CatalogLog log = new CatalogLog(dir, new Discard(), live);
+        for (int i = 0; i < entries; i++) {
+            String name = "user" + (i % 1000) + ":file-" + i;
+            List<FileContainer> replicas = List.of(all[i % all.length], all[(i + 1) % all.length]);
+            if ("snapshot".equals(source)) live.put(name, replicas);
+            else log.place(name, replicas);
+        }
+        if ("snapshot".equals(source)) log.snapshot();
+        log.sync().join();
+        log.close();
+    }
+
+    @TearDown(Level.Trial) public void tearDown() throws IOException {
+        containers.values().forEach(FileContainer::shutdown);
+        try (Stream<Path> s = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) s.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+        }
+    }
+
+    @Benchmark public int recoverCatalog() throws IOException {
+        FileCatalog catalog = new FileCatalog(dir, containers::get);
+        try {
+            return (int) catalog.stats().get("files");
+        } finally {
+            catalog.close();
+        }
+    }
+
+    @Benchmark public long recoverLog() throws IOException {
+        Discard counted = new Discard();
+        new CatalogLog(dir, counted, Map.of()).close();
+        return counted.records;
+    }
+
+    /** Counts recovered changes without keeping them. */
+    private static final class Discard implements CatalogLog.Replay {
+        long records;
+
+        @Override public void place(String filename, List<String> containerIds) { records++; }
+        @Override public void add(String filename, String containerId) { records++; }
+        @Override public void remove(String filename, String containerId) { records++; }
+    }
+}
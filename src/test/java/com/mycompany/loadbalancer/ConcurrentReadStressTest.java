@@ -0,0 +1,73 @@
+package com.mycompany.loadbalancer;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Downloads of one file from one container, with more and more readers at once. */
+class ConcurrentReadStressTest {
+    private static final int ROUNDS = 5; // downloads per reader, 100 ms each
+
+    @BeforeEach void disableReadCache() {
+        // Cache hits skip the container and would hide its locking
+        System.setProperty("lb.cache.maxObjectBytes", "0");
+    }
+
+    @AfterEach void restoreReadCache() {
+        System.clearProperty("lb.cache.maxObjectBytes");
+    }
+
+    @Test void fileLockModeScalesWithReaders() throws Exception {
+        double one = downloadsPerSecond(FileContainer.LockMode.FILE, 1);
+        double sixteen = downloadsPerSecond(FileContainer.LockMode.FILE, 16);
+        assertTrue(sixteen >= 8 * one, "1 reader " + one + "/s, 16 readers " + sixteen + "/s");
+    }
+
+    @Test void containerLockModeSerializesReaders() throws Exception {
+        double one = downloadsPerSecond(FileContainer.LockMode.CONTAINER, 1);
+        double four = downloadsPerSecond(FileContainer.LockMode.CONTAINER, 4);
+        assertTrue(four < 1.5 * one, "1 reader " + one + "/s, 4 readers " + four + "/s");
+    }
+
+    private static double downloadsPerSecond(FileContainer.LockMode mode, int readers) throws Exception {
+        FileContainer c = new FileContainer("stress-" + mode, mode, 16);
+        List<FileContainer> containers = new ArrayList<>(List.of(c));
+        FileCatalog catalog = new FileCatalog();
+        catalog.setReplicationFactor(1);
+        Dispatcher d = new Dispatcher(catalog, containers, 32, 1_000);
+        try {
+            Job upload = new Job(JobType.UPLOAD, "u", "hot", new byte[1024], 1, 5);
+            assertTrue(d.submit(upload));
+            upload.done.get(5, TimeUnit.SECONDS);
+
+            List<Thread> threads = new ArrayList<>();
+            List<Throwable> errors = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int r = 0; r < readers; r++) {
+                threads.add(Thread.ofPlatform().start(() -> {
+                    try {
+                        for (int i = 0; i < ROUNDS; i++) {
+                            Job job = new Job(JobType.DOWNLOAD, "u", "hot", (Payload) null, 1, 5);
+                            assertTrue(d.submit(job));
+                            job.done.get(30, TimeUnit.SECONDS);
+                        }
+                    } catch (Throwable t) {
+                        synchronized (errors) { errors.add(t); }
+                    }
+                }));
+            }
+            for (Thread t : threads) t.join();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            assertTrue(errors.isEmpty(), "downloads failed: " + errors);
+            return readers * ROUNDS / seconds;
+        } finally {
+            d.stop();
+            c.shutdown();
+        }
+    }
+}
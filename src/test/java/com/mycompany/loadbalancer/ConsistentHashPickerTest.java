@@ -0,0 +1,137 @@
+package com.mycompany.loadbalancer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/** Key movement on membership change and load spread, for 4 to 64 containers. */
+class ConsistentHashPickerTest {
+    private static final int KEYS = 100_000;
+    private final List<FileContainer> created = new ArrayList<>();
+
+    @AfterEach void tearDown() {
+        created.forEach(FileContainer::shutdown);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {4, 8, 16, 32, 64})
+    void addingAContainerMovesAboutOneNthOfTheKeys(int n) {
+        List<FileContainer> before = containers(n);
+        List<FileContainer> after = new ArrayList<>(before);
+        FileContainer added = container("ring-new");
+        after.add(added);
+
+        ConsistentHashPicker picker = new ConsistentHashPicker();
+        FileContainer[] owners = owners(picker, before);
+        int moved = 0;
+        for (int k = 0; k < KEYS; k++) {
+            FileContainer now = picker.choose(key(k), after, 1).get(0);
+            if (now != owners[k]) {
+                moved++;
+                assertEquals(added, now, "a key moved between two old containers");
+            }
+        }
+        double fraction = (double) moved / KEYS, ideal = 1.0 / (n + 1);
+        System.out.printf("add to %d: %.4f of keys moved, ideal %.4f%n", n, fraction, ideal);
+        assertTrue(fraction > ideal * 0.5 && fraction < ideal * 1.5, "moved " + fraction + ", ideal " + ideal);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {4, 8, 16, 32, 64})
+    void removingAContainerMovesOnlyItsKeys(int n) {
+        List<FileContainer> before = containers(n);
+        FileContainer removed = before.get(n / 2);
+        List<FileContainer> after = new ArrayList<>(before);
+        after.remove(removed);
+
+        ConsistentHashPicker picker = new ConsistentHashPicker();
+        FileContainer[] owners = owners(picker, before);
+        int moved = 0;
+        for (int k = 0; k < KEYS; k++) {
+            if (picker.choose(key(k), after, 1).get(0) != owners[k]) {
+                moved++;
+                assertEquals(removed, owners[k], "a key left a container that stayed");
+            }
+        }
+        double fraction = (double) moved / KEYS, ideal = 1.0 / n;
+        System.out.printf("remove from %d: %.4f of keys moved, ideal %.4f%n", n, fraction, ideal);
+        assertTrue(fraction > ideal * 0.5 && fraction < ideal * 1.5, "moved " + fraction + ", ideal " + ideal);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {4, 8, 16, 32, 64})
+    void loadIsSpreadEvenly(int n) {
+        List<FileContainer> members = containers(n);
+        Map<FileContainer, Integer> load = load(new ConsistentHashPicker(), members);
+        double mean = (double) KEYS / n, variance = 0;
+        for (FileContainer c : members) variance += Math.pow(load.getOrDefault(c, 0) - mean, 2) / n;
+        double cv = Math.sqrt(variance) / mean;
+        System.out.printf("%d containers: load coefficient of variation %.3f%n", n, cv);
+        assertTrue(cv < 0.2, "coefficient of variation " + cv);
+    }
+
+    @Test void weightScalesAContainersShare() {
+        List<FileContainer> members = containers(4);
+        members.get(0).weight = 3;
+        Map<FileContainer, Integer> load = load(new ConsistentHashPicker(), members);
+        double share = (double) load.get(members.get(0)) / KEYS;
+        assertTrue(share > 0.4 && share < 0.6, "weight 3 of 6 got " + share);
+    }
+
+    @Test void weightAboveTheCapCountsAsTheCap() {
+        List<FileContainer> capped = containers(2), over = containers(2);
+        capped.get(0).weight = FileContainer.MAX_WEIGHT;
+        over.get(0).weight = Integer.MAX_VALUE;
+        ConsistentHashPicker a = new ConsistentHashPicker(), b = new ConsistentHashPicker();
+        for (int k = 0; k < 1_000; k++) {
+            assertEquals(capped.indexOf(a.choose(key(k), capped, 1).get(0)), over.indexOf(b.choose(key(k), over, 1).get(0)));
+        }
+    }
+
+    @Test void toppingUpReplicasDoesNotRebuildTheRing() {
+        List<FileContainer> members = containers(8);
+        ConsistentHashPicker picker = new ConsistentHashPicker();
+        for (int k = 0; k < 1_000; k++) {
+            List<FileContainer> full = picker.choose(key(k), members, 3);
+            assertEquals(full.subList(1, 3), picker.choose(key(k), members, 2, List.of(full.get(0))));
+            assertEquals(full.subList(2, 3), picker.choose(key(k), members, 1, full.subList(0, 2)));
+        }
+        assertEquals(1, picker.ringBuilds());
+    }
+
+    private FileContainer[] owners(ConsistentHashPicker picker, List<FileContainer> members) {
+        FileContainer[] owners = new FileContainer[KEYS];
+        for (int k = 0; k < KEYS; k++) owners[k] = picker.choose(key(k), members, 1).get(0);
+        return owners;
+    }
+
+    private Map<FileContainer, Integer> load(ConsistentHashPicker picker, List<FileContainer> members) {
+        Map<FileContainer, Integer> load = new HashMap<>();
+        for (int k = 0; k < KEYS; k++) load.merge(picker.choose(key(k), members, 1).get(0), 1, Integer::sum);
+        return load;
+    }
+
+    private List<FileContainer> containers(int n) {
+        List<FileContainer> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) list.add(container("ring-" + i));
+        return list;
+    }
+
+    private FileContainer container(String id) {
+        FileContainer c = new FileContainer(id, FileContainer.LockMode.CONTAINER, 1);
+        created.add(c);
+        return c;
+    }
+
+    private static String key(int k) {
+        return "user" + (k % 97) + ":file-" + k + ".bin";
+    }
+}
@@ -0,0 +1,79 @@
+package com.mycompany.loadbalancer;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+/** Time from submit to onStarted for a job arriving at an idle dispatcher. */
+class DispatcherLatencyTest {
+    private static final int TRIALS = 200;
+
+    @Test void idleDispatchUnderOneMillisecondWithFcfs() throws Exception {
+        assertIdleLatency(FCFS::new);
+    }
+
+    @Test void idleDispatchUnderOneMillisecondWithPriority() throws Exception {
+        assertIdleLatency(PriorityScheduling::new);
+    }
+
+    @Test void idleDispatchUnderOneMillisecondWithRoundRobin() throws Exception {
+        assertIdleLatency(RoundRobinJobs::new);
+    }
+
+    @Test void idleDispatchUnderOneMillisecondWithShortestJobNext() throws Exception {
+        assertIdleLatency(ShortestJobNext::new);
+    }
+
+    @Test void idleDispatchUnderOneMillisecondWithMultiLevelQueues() throws Exception {
+        assertIdleLatency(MultiLevelQueues::new);
+    }
+
+    private static void assertIdleLatency(Supplier<SchedulingAlgorithm> scheduler) throws Exception {
+        Dispatcher d = new Dispatcher(new FileCatalog(), new ArrayList<>(), 4, 100);
+        Map<Job, Long> started = new ConcurrentHashMap<>();
+        d.addListener(new Dispatcher.JobEventListener() {
+            @Override public void onQueued(Job job) {}
+            @Override public void onStarted(Job job) { started.put(job, System.nanoTime()); }
+            @Override public void onCompleted(Job job) {}
+            @Override public void onFailed(Job job, Throwable error) {}
+        });
+        SchedulingAlgorithm s = scheduler.get();
+        d.setScheduler(s);
+        try {
+            // Warm up class loading and the JIT before measuring
+            for (int i = 0; i < 200; i++) runOne(d);
+            long[] micros = new long[TRIALS];
+            for (int i = 0; i < TRIALS; i++) {
+                Thread.sleep(20); // let the loop go idle and park
+                Job job = new Job(JobType.DELETE, "u", "missing-" + i, (Payload) null, 1, 5);
+                long submitted = System.nanoTime();
+                assertTrue(d.submit(job));
+                job.done.handle((v, e) -> null).get(5, TimeUnit.SECONDS);
+                micros[i] = (started.get(job) - submitted) / 1_000;
+            }
+            Arrays.sort(micros);
+            long p50 = micros[TRIALS / 2], p99 = micros[TRIALS * 99 / 100];
+            System.out.printf("%s: submit to onStarted p50 %dus, p99 %dus%n", s.name(), p50, p99);
+            assertTrue(p50 < 1_000, "median submit to onStarted was " + p50 + "us: " + Arrays.toString(micros));
+            // With one CPU the submitter, the loop and the worker take turns on
+            // it, and a bare thread handoff already has a tail past 1 ms
+            if (Runtime.getRuntime().availableProcessors() > 1) {
+                assertTrue(p99 < 1_000, "p99 submit to onStarted was " + p99 + "us: " + Arrays.toString(micros));
+            }
+        } finally {
+            d.stop();
+        }
+    }
+
+    private static void runOne(Dispatcher d) throws Exception {
+        Job job = new Job(JobType.DELETE, "u", "warmup", (Payload) null, 1, 5);
+        d.submit(job);
+        job.done.handle((v, e) -> null).get(5, TimeUnit.SECONDS);
+    }
+}
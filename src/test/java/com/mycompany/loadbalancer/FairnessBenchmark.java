@@ -0,0 +1,101 @@
+package com.mycompany.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A light user sends one small upload every 100 ms while a heavy user has a
+ * backlog of heavyJobs uploads queued ahead of it. Workers match what the
+ * containers can run at once, so waiting happens in the scheduler. The
+ * score is how long the light user's session takes; its p99 latency is
+ * printed at the end of each trial. With deficit round robin it should
+ * stay near the no-backlog case, with FCFS it grows with the backlog.
+ *
+ * Run: java -cp target/test-classes:target/classes:&lt;test classpath&gt;
+ *      org.openjdk.jmh.Main FairnessBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FairnessBenchmark {
+    private static final int LIGHT_REQUESTS = 20;
+    private static final int CAPACITY = 8; // 2 containers x 4 operations
+
+    @Param({"drr", "fcfs"})
+    public String scheduler;
+
+    @Param({"0", "400"})
+    public int heavyJobs;
+
+    private Dispatcher dispatcher;
+    private List<FileContainer> containers;
+    private final List<Job> backlog = new ArrayList<>();
+    private final List<Long> lightLatenciesMs = new ArrayList<>();
+    private int round;
+
+    @Setup(Level.Trial) public void setUp() {
+        containers = new ArrayList<>();
+        for (int i = 0; i < CAPACITY / 4; i++) containers.add(new FileContainer("fair-" + i, FileContainer.LockMode.FILE, 4));
+        FileCatalog catalog = new FileCatalog();
+        catalog.setReplicationFactor(1);
+        dispatcher = new Dispatcher(catalog, containers, CAPACITY, 10_000);
+        dispatcher.setScheduler("drr".equals(scheduler) ? new DeficitRoundRobin() : new FCFS());
+    }
+
+    @Setup(Level.Invocation) public void flood() {
+        round++;
+        backlog.clear();
+        for (int i = 0; i < heavyJobs; i++) {
+            Job job = new Job(JobType.UPLOAD, "heavy", "heavy:r" + round + "-" + i, new byte[10 << 10], 10, 5);
+            if (dispatcher.submit(job)) backlog.add(job);
+        }
+    }
+
+    @Benchmark public void lightUserSession() throws Exception {
+        List<Job> jobs = new ArrayList<>(LIGHT_REQUESTS);
+        for (int i = 0; i < LIGHT_REQUESTS; i++) {
+            Job job = new Job(JobType.UPLOAD, "light", "light:r" + round + "-" + i, new byte[1 << 10], 1, 5);
+            dispatcher.submit(job);
+            job.done.whenComplete((v, e) -> {
+                synchronized (lightLatenciesMs) { lightLatenciesMs.add(System.currentTimeMillis() - job.arrivedAt); }
+            });
+            jobs.add(job);
+            Thread.sleep(100);
+        }
+        for (Job job : jobs) job.done.get(5, TimeUnit.MINUTES);
+    }
+
+    // Whatever is left of the backlog must not spill into the next session
+    @TearDown(Level.Invocation) public void drain() throws Exception {
+        CompletableFuture.allOf(backlog.stream().map(j -> j.done).toArray(CompletableFuture[]::new)).get(5, TimeUnit.MINUTES);
+    }
+
+    @TearDown(Level.Trial) public void tearDown() {
+        long[] l;
+        synchronized (lightLatenciesMs) { l = lightLatenciesMs.stream().mapToLong(Long::longValue).toArray(); }
+        Arrays.sort(l);
+        System.out.printf("%n[%s, %d heavy] light user p99 %d ms, max %d ms over %d requests%n", scheduler, heavyJobs,
+                l.length == 0 ? 0 : l[(int) (l.length * 0.99)], l.length == 0 ? 0 : l[l.length - 1], l.length);
+        dispatcher.stop();
+        containers.forEach(FileContainer::shutdown);
+    }
+}
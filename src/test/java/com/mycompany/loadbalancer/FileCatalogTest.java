@@ -0,0 +1,145 @@
+package com.mycompany.loadbalancer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** The forward and reverse indexes under concurrent changes, and reopening from disk. */
+class FileCatalogTest {
+    private final Map<String, FileContainer> containers = new HashMap<>();
+    private FileContainer a, b, c;
+
+    @BeforeEach void setUp() {
+        a = container("a");
+        b = container("b");
+        c = container("c");
+    }
+
+    @AfterEach void tearDown() {
+        containers.values().forEach(FileContainer::shutdown);
+    }
+
+    @Test void removeContainerWhilePlacingLeavesNoStaleEntries() throws Exception {
+        FileCatalog catalog = new FileCatalog();
+        for (int i = 0; i < 20_000; i++) catalog.place("old-" + i, List.of(a, b));
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> placers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            int id = t;
+            placers.add(Thread.ofPlatform().start(() -> {
+                await(start);
+                for (int i = 0; i < 5_000; i++) {
+                    catalog.place("new-" + id + "-" + i, List.of(a, c));
+                    catalog.place("old-" + ThreadLocalRandom.current().nextInt(20_000), List.of(b, a));
+                }
+            }));
+        }
+        start.countDown();
+        int removed = catalog.removeContainer(a);
+        for (Thread t : placers) t.join();
+
+        assertTrue(removed > 0);
+        assertIndexesAgree(catalog);
+        // Whatever landed on a after the removal is caught by a second pass
+        catalog.removeContainer(a);
+        assertTrue(catalog.filesOn(a).isEmpty());
+        for (String f : catalog.list("", null, Integer.MAX_VALUE)) assertFalse(catalog.locations(f).contains(a), f);
+        assertIndexesAgree(catalog);
+    }
+
+    @Test void concurrentPlaceAndRemoveKeepIndexesInStep() throws Exception {
+        FileCatalog catalog = new FileCatalog();
+        List<FileContainer> all = List.of(a, b, c);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int i = 0; i < 20_000; i++) {
+                    String f = "f" + rnd.nextInt(500);
+                    FileContainer x = all.get(rnd.nextInt(3)), y = all.get(rnd.nextInt(3));
+                    switch (rnd.nextInt(3)) {
+                        case 0: catalog.place(f, List.of(x, y)); break;
+                        case 1: catalog.addReplica(f, x, catalog.version(f)); break;
+                        default: catalog.removeReplica(f, x);
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) t.join();
+        assertIndexesAgree(catalog);
+    }
+
+    @Test void reopenRestoresEveryChange(@TempDir Path dir) throws Exception {
+        FileCatalog catalog = new FileCatalog(dir, containers::get);
+        for (int i = 0; i < 1_000; i++) catalog.place("u:f" + i, List.of(a, b));
+        for (int i = 0; i < 1_000; i += 3) catalog.addReplica("u:f" + i, c, catalog.version("u:f" + i));
+        for (int i = 0; i < 1_000; i += 5) catalog.removeReplica("u:f" + i, b);
+        for (int i = 0; i < 1_000; i += 7) catalog.place("u:f" + i, List.of(c));
+        catalog.removeContainer(a);
+        catalog.sync().get(5, TimeUnit.SECONDS);
+        Map<String, Set<FileContainer>> before = snapshotOf(catalog);
+        catalog.close();
+
+        FileCatalog reopened = new FileCatalog(dir, containers::get);
+        try {
+            assertEquals(before, snapshotOf(reopened));
+            assertEquals(new ArrayList<>(before.keySet()), reopened.list("u:", null, Integer.MAX_VALUE));
+            assertIndexesAgree(reopened);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    // Every file listed on a container names that container, and back
+    private void assertIndexesAgree(FileCatalog catalog) {
+        Set<String> names = new HashSet<>(catalog.list("", null, Integer.MAX_VALUE));
+        for (String f : names) {
+            assertTrue(catalog.exists(f), f);
+            assertFalse(catalog.locations(f).isEmpty(), f);
+            for (FileContainer x : catalog.locations(f)) assertTrue(catalog.filesOn(x).contains(f), f + " on " + x.id);
+        }
+        for (FileContainer x : containers.values()) {
+            for (String f : catalog.filesOn(x)) {
+                assertTrue(catalog.locations(f).contains(x), f + " indexed on " + x.id);
+                assertTrue(names.contains(f), f + " not listed");
+            }
+        }
+    }
+
+    private static Map<String, Set<FileContainer>> snapshotOf(FileCatalog catalog) {
+        Map<String, Set<FileContainer>> m = new TreeMap<>();
+        for (String f : catalog.list("", null, Integer.MAX_VALUE)) m.put(f, Set.copyOf(catalog.locations(f)));
+        return m;
+    }
+
+    private FileContainer container(String id) {
+        FileContainer x = new FileContainer(id, FileContainer.LockMode.CONTAINER, 1);
+        containers.put(id, x);
+        return x;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
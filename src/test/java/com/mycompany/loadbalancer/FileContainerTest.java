@@ -0,0 +1,48 @@
+package com.mycompany.loadbalancer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/** Operations on one file waiting for its lock in FILE mode. */
+class FileContainerTest {
+    private static final int DRAINERS = 2;
+    private final FileContainer c = new FileContainer("files", FileContainer.LockMode.FILE, DRAINERS);
+
+    @AfterEach void tearDown() {
+        c.shutdown();
+    }
+
+    @Test void aBusyFileDoesNotHoldUpReadsOfAnother() throws Exception {
+        CountDownLatch held = new CountDownLatch(1), release = new CountDownLatch(1);
+        CompletableFuture<Object> first = c.submit(5, "a", FileContainer.Access.WRITE, () -> {
+            held.countDown();
+            release.await();
+            return null;
+        });
+        held.await();
+        // More writes waiting for "a" than there are drainers to block on it
+        List<CompletableFuture<Integer>> writes = new ArrayList<>();
+        for (int i = 0; i < DRAINERS + 2; i++) {
+            int n = i;
+            writes.add(c.submit(5, "a", FileContainer.Access.WRITE, () -> n));
+        }
+        CompletableFuture<String> read = c.submit(5, "b", FileContainer.Access.READ, () -> "b");
+        try {
+            assertEquals("b", read.get(2, TimeUnit.SECONDS));
+            assertFalse(writes.get(0).isDone(), "a write ran while another held the file");
+        } finally {
+            release.countDown();
+        }
+        first.get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < writes.size(); i++) assertEquals(i, writes.get(i).get(5, TimeUnit.SECONDS));
+        assertEquals(0, c.queueDepth());
+    }
+}
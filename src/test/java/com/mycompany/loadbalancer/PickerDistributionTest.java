@@ -0,0 +1,107 @@
+package com.mycompany.loadbalancer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** How often each picker chooses each container. */
+class PickerDistributionTest {
+    private static final int PICKS = 12_000;
+    private final List<FileContainer> containers = new ArrayList<>();
+
+    @BeforeEach void setUp() {
+        for (int i = 0; i < 4; i++) containers.add(new FileContainer("p" + i, FileContainer.LockMode.CONTAINER, 1));
+    }
+
+    @AfterEach void tearDown() {
+        containers.forEach(FileContainer::shutdown);
+    }
+
+    @Test void roundRobinSpreadsReplicasEvenly() {
+        Map<FileContainer, Integer> counts = count(new RoundRobinPicker(), 2);
+        for (FileContainer c : containers) assertEquals(PICKS * 2 / containers.size(), counts.get(c), c.id);
+    }
+
+    @Test void powerOfTwoChoicesIsUniformUnderEqualLoad() {
+        Map<FileContainer, Integer> counts = count(new PowerOfTwoChoicesPicker(), 1);
+        double expected = (double) PICKS / containers.size();
+        for (FileContainer c : containers) {
+            assertTrue(Math.abs(counts.get(c) - expected) < expected * 0.1, c.id + " picked " + counts.get(c) + " times");
+        }
+    }
+
+    @Test void powerOfTwoChoicesAvoidsTheBusiestContainer() {
+        FileContainer busy = containers.get(0);
+        busy.activeOps.set(50);
+        try {
+            Map<FileContainer, Integer> counts = count(new PowerOfTwoChoicesPicker(), 1);
+            // Any pair that samples the busy container also holds an idle one
+            assertEquals(0, counts.get(busy));
+            double expected = (double) PICKS / (containers.size() - 1);
+            for (FileContainer c : containers.subList(1, containers.size())) {
+                assertTrue(Math.abs(counts.get(c) - expected) < expected * 0.1, c.id + " picked " + counts.get(c) + " times");
+            }
+        } finally {
+            busy.activeOps.set(0);
+        }
+    }
+
+    @Test void powerOfTwoChoicesPrefersTheFasterContainer() throws Exception {
+        FileContainer slow = containers.get(0), fast = containers.get(1);
+        slow.submit(0, () -> { Thread.sleep(50); return null; }).join(); // raises its service time estimate
+        fast.submit(0, () -> null).join();
+        // The estimate is recorded just after the result completes
+        while (slow.serviceTimeMs() < 40 || slow.activeOps.get() > 0 || fast.activeOps.get() > 0) Thread.sleep(1);
+        List<FileContainer> pair = List.of(slow, fast);
+        int slowPicks = 0;
+        for (int i = 0; i < 1_000; i++) if (new PowerOfTwoChoicesPicker().choose(pair) == slow) slowPicks++;
+        assertEquals(0, slowPicks);
+    }
+
+    @Test void replicasAreDistinct() {
+        for (ContainerPicker p : List.of(new RoundRobinPicker(), new LeastConnectionsPicker(),
+                new PowerOfTwoChoicesPicker(), new ConsistentHashPicker())) {
+            for (int i = 0; i < 1_000; i++) {
+                List<FileContainer> chosen = p.choose("f" + i, containers, 3);
+                assertEquals(3, new HashSet<>(chosen).size(), p.name());
+            }
+        }
+    }
+
+    @Test void uploadsArePlacedThroughThePicker() throws Exception {
+        FileCatalog catalog = new FileCatalog();
+        catalog.setReplicationFactor(1);
+        Dispatcher d = new Dispatcher(catalog, new ArrayList<>(containers), 8, 100);
+        try {
+            d.setPicker(new RoundRobinPicker());
+            List<Job> jobs = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                Job job = new Job(JobType.UPLOAD, "u", "f" + i, new byte[16], 1, 5);
+                assertTrue(d.submit(job));
+                jobs.add(job);
+            }
+            for (Job job : jobs) job.done.get(5, TimeUnit.SECONDS);
+            for (FileContainer c : containers) assertEquals(2, catalog.filesOn(c).size(), c.id);
+        } finally {
+            d.stop();
+        }
+    }
+
+    private Map<FileContainer, Integer> count(ContainerPicker picker, int replicas) {
+        Map<FileContainer, Integer> counts = new HashMap<>();
+        for (FileContainer c : containers) counts.put(c, 0);
+        for (int i = 0; i < PICKS; i++) {
+            for (FileContainer c : picker.choose("f" + i, containers, replicas)) counts.merge(c, 1, Integer::sum);
+        }
+        return counts;
+    }
+}
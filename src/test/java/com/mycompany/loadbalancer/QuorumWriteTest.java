@@ -0,0 +1,128 @@
+package com.mycompany.loadbalancer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Uploads with RF=3 and W=2 while the third replica is held back. */
+class QuorumWriteTest {
+    private FileContainer c1, c2, c3;
+    private FileCatalog catalog;
+    private Dispatcher dispatcher;
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    @BeforeEach void setUp() {
+        c1 = new FileContainer("q1", FileContainer.LockMode.CONTAINER, 1);
+        c2 = new FileContainer("q2", FileContainer.LockMode.CONTAINER, 1);
+        c3 = new FileContainer("q3", FileContainer.LockMode.CONTAINER, 1);
+        catalog = new FileCatalog();
+        catalog.setReplicationFactor(3);
+        catalog.setWriteQuorum(2);
+        dispatcher = new Dispatcher(catalog, new ArrayList<>(List.of(c1, c2, c3)), 8, 100);
+    }
+
+    @AfterEach void tearDown() {
+        gate.countDown();
+        dispatcher.stop();
+        for (FileContainer c : List.of(c1, c2, c3)) c.shutdown();
+    }
+
+    @Test void acksAtQuorumAndCataloguesTheLaggingReplicaLater() throws Exception {
+        holdBack(c3);
+        run(upload("f", 1));
+        assertEquals(Set.of(c1, c2), catalog.locations("f"));
+
+        gate.countDown();
+        eventually(() -> catalog.locations("f").size() == 3);
+        assertArrayEquals(payload(1), contentOf(c3, "f"));
+    }
+
+    @Test void deleteBeforeTheLaggingReplicaLandsIsNotUndone() throws Exception {
+        holdBack(c3);
+        run(upload("f", 1));
+        run(new Job(JobType.DELETE, "u", "f", (Payload) null, 1, 5));
+        assertFalse(catalog.exists("f"));
+
+        gate.countDown();
+        eventually(() -> c3.totalOps.get() >= 1); // the lagging write has landed
+        eventually(() -> !c3.storage.contains("f"));
+        assertTrue(catalog.locations("f").isEmpty());
+    }
+
+    @Test void overwriteIsNotReplacedByTheOlderLaggingReplica() throws Exception {
+        holdBack(c3);
+        run(upload("f", 1));
+        run(upload("f", 2));
+
+        gate.countDown();
+        eventually(() -> c3.totalOps.get() >= 2); // both writes have landed
+        eventually(() -> catalog.locations("f").size() == 3);
+        for (FileContainer c : List.of(c1, c2, c3)) assertArrayEquals(payload(2), contentOf(c, "f"), c.id);
+    }
+
+    @Test void failedQuorumRemovesTheReplicasThatWereWritten() throws Exception {
+        catalog.setWriteQuorum(3);
+        c3.shutdown(); // still marked healthy, so it is chosen and its write fails
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> run(upload("f", 1)));
+        assertTrue(e.getCause() instanceof IllegalStateException, e.toString());
+        eventually(() -> c1.totalOps.get() >= 1 && c2.totalOps.get() >= 1);
+        eventually(() -> !c1.storage.contains("f") && !c2.storage.contains("f"));
+        assertFalse(catalog.exists("f"));
+    }
+
+    // Keeps the container's only worker busy until the gate opens
+    private void holdBack(FileContainer c) {
+        c.submit(100, () -> {
+            gate.await();
+            return null;
+        });
+    }
+
+    private void run(Job job) throws Exception {
+        assertTrue(dispatcher.submit(job));
+        job.done.get(5, TimeUnit.SECONDS);
+    }
+
+    private static Job upload(String filename, int fill) {
+        return new Job(JobType.UPLOAD, "u", filename, payload(fill), 1, 5);
+    }
+
+    private static byte[] payload(int fill) {
+        byte[] data = new byte[1024];
+        Arrays.fill(data, (byte) fill);
+        return data;
+    }
+
+    private static byte[] contentOf(FileContainer c, String key) throws Exception {
+        try (StoredObject obj = c.storage.read(key)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            obj.transferTo(0, obj.length(), Channels.newChannel(out));
+            return out.toByteArray();
+        }
+    }
+
+    private static void eventually(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "condition not reached within 5s");
+            Thread.sleep(10);
+        }
+    }
+}
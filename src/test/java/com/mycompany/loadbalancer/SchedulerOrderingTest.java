@@ -0,0 +1,105 @@
+package com.mycompany.loadbalancer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/** The order schedulers hand out jobs in, and SRT preemption on a container. */
+class SchedulerOrderingTest {
+
+    @Test void shortestJobNextOrdersBySize() {
+        ShortestJobNext sjn = new ShortestJobNext();
+        for (int kb : new int[] {40, 5, 300, 1, 20}) sjn.onJobArrived(job(kb, 5));
+        assertEquals(List.of(1, 5, 20, 40, 300), drain(sjn).stream().map(j -> j.sizeKB).toList());
+    }
+
+    @Test void shortestJobNextDrainsALargeQueueInOrder() {
+        ShortestJobNext sjn = new ShortestJobNext();
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int i = 0; i < 100_000; i++) sjn.onJobArrived(job(1 + rnd.nextInt(10_000), 5));
+        long start = System.nanoTime();
+        List<Job> order = drain(sjn);
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(100_000, order.size());
+        for (int i = 1; i < order.size(); i++) assertTrue(order.get(i - 1).sizeKB <= order.get(i).sizeKB, "out of order at " + i);
+        assertTrue(ms < 1_000, "draining 100k jobs took " + ms + "ms");
+    }
+
+    @Test void priorityOrdersHighestFirstThenByArrival() throws Exception {
+        PriorityScheduling p = new PriorityScheduling();
+        Job low = job(1, 1), high = job(1, 9);
+        Thread.sleep(2);
+        Job mid = job(1, 5), laterHigh = job(1, 9);
+        for (Job j : List.of(low, mid, laterHigh, high)) p.onJobArrived(j);
+        assertEquals(List.of(high, laterHigh, mid, low), drain(p));
+    }
+
+    @Test void shortestRemainingTimeOrdersByWorkLeft() {
+        ShortestRemainingTime srt = new ShortestRemainingTime();
+        Job big = job(100, 5), small = job(30, 5), started = job(200, 5);
+        started.remainingMs = 50; // most of it already ran
+        for (Job j : List.of(big, small, started)) srt.onJobArrived(j);
+        assertEquals(List.of(started, small, big), drain(srt));
+        assertTrue(srt.containerRank(started) > srt.containerRank(small));
+    }
+
+    @Test void shortestRemainingTimePreemptsALongUpload() throws Exception {
+        System.setProperty("lb.srt.chunkMs", "50");
+        try {
+            List<Job> finished = finishOrder(new ShortestRemainingTime());
+            assertEquals("short", finished.get(0).filename, "the short upload overtakes at a chunk boundary");
+        } finally {
+            System.clearProperty("lb.srt.chunkMs");
+        }
+    }
+
+    @Test void withoutPreemptionTheShortUploadWaits() throws Exception {
+        List<Job> finished = finishOrder(new FCFS());
+        assertEquals("long", finished.get(0).filename);
+    }
+
+    // A 1 s upload, then a 100 ms one to the same single-slot container
+    private static List<Job> finishOrder(SchedulingAlgorithm scheduler) throws Exception {
+        FileContainer c = new FileContainer("sched", FileContainer.LockMode.CONTAINER, 1);
+        FileCatalog catalog = new FileCatalog();
+        catalog.setReplicationFactor(1);
+        Dispatcher d = new Dispatcher(catalog, new ArrayList<>(List.of(c)), 4, 100);
+        List<Job> finished = new CopyOnWriteArrayList<>();
+        d.addListener(new Dispatcher.JobEventListener() {
+            @Override public void onQueued(Job job) {}
+            @Override public void onStarted(Job job) {}
+            @Override public void onCompleted(Job job) { finished.add(job); }
+            @Override public void onFailed(Job job, Throwable error) { finished.add(job); }
+        });
+        d.setScheduler(scheduler);
+        try {
+            Job longJob = new Job(JobType.UPLOAD, "u", "long", new byte[100 << 10], 100, 5);
+            Job shortJob = new Job(JobType.UPLOAD, "u", "short", new byte[1 << 10], 1, 5);
+            assertTrue(d.submit(longJob));
+            Thread.sleep(150);
+            assertTrue(d.submit(shortJob));
+            longJob.done.get(10, TimeUnit.SECONDS);
+            shortJob.done.get(10, TimeUnit.SECONDS);
+            return finished;
+        } finally {
+            d.stop();
+            c.shutdown();
+        }
+    }
+
+    private static Job job(int sizeKB, int priority) {
+        return new Job(JobType.UPLOAD, "u", "f", (Payload) null, sizeKB, priority);
+    }
+
+    private static List<Job> drain(SchedulingAlgorithm s) {
+        List<Job> out = new ArrayList<>();
+        for (Job j = s.nextJob().orElse(null); j != null; j = s.nextJob().orElse(null)) out.add(j);
+        return out;
+    }
+}
@@ -0,0 +1,72 @@
+package com.mycompany.loadbalancer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Jobs queued when the scheduler is switched. */
+class SchedulerSwitchTest {
+    private static final int JOBS = 10;
+    private FileContainer c;
+    private Dispatcher dispatcher;
+
+    @BeforeEach void setUp() {
+        c = new FileContainer("switch", FileContainer.LockMode.CONTAINER, 1);
+        FileCatalog catalog = new FileCatalog();
+        catalog.setReplicationFactor(1);
+        // One worker, so all but the first upload wait in the scheduler
+        dispatcher = new Dispatcher(catalog, new ArrayList<>(List.of(c)), 1, 100);
+    }
+
+    @AfterEach void tearDown() {
+        dispatcher.stop();
+        c.shutdown();
+    }
+
+    @Test void queuedJobsMoveToTheNewScheduler() throws Exception {
+        List<Job> jobs = submitUploads();
+        dispatcher.setScheduler(new PriorityScheduling());
+        dispatcher.setScheduler(new ShortestJobNext());
+        for (Job job : jobs) job.done.get(10, TimeUnit.SECONDS);
+        assertEquals(0, dispatcher.metrics().get("jobsQueued"));
+        assertEquals(JOBS, dispatcher.metrics().get("jobsCompleted"));
+    }
+
+    @Test void jobsTheNewSchedulerRefusesFailAndFreeTheirSlot() throws Exception {
+        List<Job> jobs = submitUploads();
+        dispatcher.setScheduler(new FCFS() {
+            @Override public boolean admit(Job job) { return false; }
+        });
+        int refused = 0;
+        for (Job job : jobs) {
+            try {
+                job.done.get(10, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException, e.toString());
+                refused++;
+            }
+        }
+        assertTrue(refused > 0);
+        assertEquals(0, dispatcher.metrics().get("jobsQueued"));
+        Job later = new Job(JobType.UPLOAD, "u", "later", new byte[16], 1, 5);
+        assertEquals(Dispatcher.Admission.DEADLINE_UNMET, dispatcher.admit(later));
+    }
+
+    private List<Job> submitUploads() {
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < JOBS; i++) {
+            Job job = new Job(JobType.UPLOAD, "u", "f" + i, new byte[16], 1, 5);
+            assertTrue(dispatcher.submit(job));
+            jobs.add(job);
+        }
+        return jobs;
+    }
+}
@@ -0,0 +1,131 @@
+package com.mycompany.loadbalancer;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overwrites and reads of 16 KB files against a few hundred MB of resident
+ * content, kept on the heap or in off-heap slabs. Alongside throughput it
+ * reports the GC pauses taken during each iteration: their number, total
+ * and longest duration.
+ *
+ * Run: java -cp target/test-classes:target/classes:&lt;test classpath&gt;
+ *      org.openjdk.jmh.Main StorageGcBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-XX:MaxDirectMemorySize=1g", "-XX:+UseG1GC"})
+public class StorageGcBenchmark {
+    private static final int FILE_BYTES = 16 << 10;
+
+    @Param({"heap", "offheap"})
+    public String storage;
+
+    @Param({"384"})
+    public int residentMB;
+
+    private ContainerStorage store;
+    private int files;
+    private byte[] content;
+    private final WritableByteChannel sink = Channels.newChannel(OutputStream.nullOutputStream());
+
+    // Fed by GC notifications, so every pause is seen, not just a sample
+    static final AtomicLong pauses = new AtomicLong();
+    static final AtomicLong pauseMicros = new AtomicLong();
+    static final AtomicLong maxPauseMicros = new AtomicLong();
+    private static final NotificationListener onGc = (n, handback) -> {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(n.getType())) return;
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) n.getUserData());
+        if (info.getGcAction().contains("end of minor") || info.getGcAction().contains("end of major")) {
+            long us = info.getGcInfo().getDuration() * 1_000;
+            pauses.incrementAndGet();
+            pauseMicros.addAndGet(us);
+            maxPauseMicros.accumulateAndGet(us, Math::max);
+        }
+    };
+
+    @Setup(Level.Trial) public void setUp() throws IOException {
+        store = "offheap".equals(storage) ? new SlabStorage(2L * residentMB << 20) : new HeapStorage();
+        content = new byte[FILE_BYTES];
+        ThreadLocalRandom.current().nextBytes(content);
+        files = (residentMB << 20) / FILE_BYTES;
+        for (int i = 0; i < files; i++) store.write("f" + i, new ByteArrayInputStream(content), FILE_BYTES);
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) gc).addNotificationListener(onGc, null, null);
+        }
+    }
+
+    @TearDown(Level.Trial) public void tearDown() throws Exception {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) gc).removeNotificationListener(onGc);
+        }
+        store.close();
+    }
+
+    /** GC pauses during the iteration; JMH reads the fields when it ends. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class GcPauses {
+        public long gcPauses;
+        public long gcPauseMs;
+        public long gcMaxPauseMs;
+        private long startPauses, startMicros;
+
+        @Setup(Level.Iteration) public void start() {
+            startPauses = pauses.get();
+            startMicros = pauseMicros.get();
+            maxPauseMicros.set(0);
+            gcPauses = gcPauseMs = gcMaxPauseMs = 0;
+        }
+
+        void update() {
+            gcPauses = pauses.get() - startPauses;
+            gcPauseMs = (pauseMicros.get() - startMicros) / 1_000;
+            gcMaxPauseMs = maxPauseMicros.get() / 1_000;
+        }
+    }
+
+    @Benchmark public void overwrite(GcPauses gc) throws IOException {
+        int i = ThreadLocalRandom.current().nextInt(files);
+        // A fresh array per upload, as a request body would be
+        store.write("f" + i, new ByteArrayInputStream(content.clone()), FILE_BYTES);
+        gc.update();
+    }
+
+    @Benchmark public void read(GcPauses gc) throws IOException {
+        int i = ThreadLocalRandom.current().nextInt(files);
+        try (StoredObject obj = store.read("f" + i)) {
+            obj.transferTo(0, obj.length(), sink);
+        }
+        gc.update();
+    }
+}
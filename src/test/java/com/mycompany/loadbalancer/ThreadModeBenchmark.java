@@ -0,0 +1,101 @@
+package com.mycompany.loadbalancer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A burst of blocking uploads (100 ms of simulated I/O each) through the
+ * dispatcher, with platform or virtual threads. The score is the time to
+ * drain the burst; the most jobs seen in flight at once and the p99
+ * submit-to-done latency are printed at the end of each trial.
+ *
+ * Run: java -cp target/test-classes:target/classes:&lt;test classpath&gt;
+ *      org.openjdk.jmh.Main ThreadModeBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ThreadModeBenchmark {
+    @Param({"PLATFORM", "VIRTUAL"})
+    public String threads;
+
+    @Param({"5000"})
+    public int jobs;
+
+    // The same for both thread modes, so only the threads differ
+    @Param({"16"})
+    public int containerParallelism;
+
+    private Dispatcher dispatcher;
+    private List<FileContainer> containers;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final List<Long> latenciesMs = new ArrayList<>();
+    private int burst;
+
+    @Setup(Level.Trial) public void setUp() {
+        ThreadMode mode = ThreadMode.valueOf(threads);
+        System.setProperty("lb.threads", threads.toLowerCase()); // containers read it
+        containers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            containers.add(new FileContainer("bench-" + i, FileContainer.LockMode.FILE, containerParallelism));
+        }
+        FileCatalog catalog = new FileCatalog();
+        catalog.setReplicationFactor(1);
+        dispatcher = new Dispatcher(catalog, containers, mode.defaultWorkers(), jobs, mode);
+        dispatcher.addListener(new Dispatcher.JobEventListener() {
+            @Override public void onQueued(Job job) {}
+            @Override public void onStarted(Job job) { maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max); }
+            @Override public void onCompleted(Job job) { inFlight.decrementAndGet(); }
+            @Override public void onFailed(Job job, Throwable error) { inFlight.decrementAndGet(); }
+        });
+    }
+
+    @Benchmark public void burst() throws Exception {
+        int b = burst++;
+        List<Job> submitted = new ArrayList<>(jobs);
+        for (int i = 0; i < jobs; i++) {
+            Job job = new Job(JobType.UPLOAD, "bench", "b" + b + "-" + i, new byte[1024], 1, 5);
+            if (dispatcher.submit(job)) submitted.add(job);
+        }
+        CompletableFuture<?>[] done = new CompletableFuture<?>[submitted.size()];
+        for (int i = 0; i < done.length; i++) {
+            Job job = submitted.get(i);
+            done[i] = job.done.handle((v, e) -> {
+                synchronized (latenciesMs) { latenciesMs.add(System.currentTimeMillis() - job.arrivedAt); }
+                return null;
+            });
+        }
+        CompletableFuture.allOf(done).get(10, TimeUnit.MINUTES);
+    }
+
+    @TearDown(Level.Trial) public void tearDown() {
+        long[] l;
+        synchronized (latenciesMs) { l = latenciesMs.stream().mapToLong(Long::longValue).toArray(); }
+        Arrays.sort(l);
+        System.out.printf("%n[%s] max in flight %d, p99 latency %d ms over %d jobs%n",
+                threads, maxInFlight.get(), l.length == 0 ? 0 : l[(int) (l.length * 0.99)], l.length);
+        dispatcher.stop();
+        containers.forEach(FileContainer::shutdown);
+    }
+}